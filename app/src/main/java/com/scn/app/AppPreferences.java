@@ -53,8 +53,8 @@ public final class AppPreferences {
 
     public void putInfraRedDeviceType(InfraRedDeviceType value) {
         switch (value) {
-            case BUILT_IN_OR_NONE: putIntValue(InfraRedDeviceTypeKey, 0);
-            case AUDIO_OUTPUT: putIntValue(InfraRedDeviceTypeKey, 1);
+            case BUILT_IN_OR_NONE: putIntValue(InfraRedDeviceTypeKey, 0); break;
+            case AUDIO_OUTPUT: putIntValue(InfraRedDeviceTypeKey, 1); break;
         }
     }
 
@@ -51,11 +51,23 @@ public final class ControllerAction {
     @ColumnInfo(name = "max_output")
     private int maxOutput;
 
+    // Percent of the controller range around the center giving no output
+    @ColumnInfo(name = "dead_zone")
+    private int deadZone;
+
+    // Percent of the cubic part of the response curve, 0 is linear
+    @ColumnInfo(name = "expo")
+    private int expo;
+
+    // Hysteresis in percent of the controller range, 0 is no filtering
+    @ColumnInfo(name = "filter")
+    private int filter;
+
     //
     // Constructor
     //
 
-    ControllerAction(long id, long controllerEventId, @NonNull String deviceId, int channel, boolean isInvert, boolean isToggle, int maxOutput) {
+    ControllerAction(long id, long controllerEventId, @NonNull String deviceId, int channel, boolean isInvert, boolean isToggle, int maxOutput, int deadZone, int expo, int filter) {
         Logger.i(TAG, "constructor - deviceId: " + deviceId + ", channel: " + channel);
         this.id = id;
         this.controllerEventId = controllerEventId;
@@ -64,6 +76,9 @@ public final class ControllerAction {
         this.isInvert = isInvert;
         this.isToggle = isToggle;
         this.maxOutput = maxOutput;
+        this.deadZone = deadZone;
+        this.expo = expo;
+        this.filter = filter;
     }
 
     //
@@ -91,6 +106,15 @@ public final class ControllerAction {
     public int getMaxOutput() { return maxOutput; }
     void setMaxOutput(int value) { maxOutput = value; }
 
+    public int getDeadZone() { return deadZone; }
+    void setDeadZone(int value) { deadZone = value; }
+
+    public int getExpo() { return expo; }
+    void setExpo(int value) { expo = value; }
+
+    public int getFilter() { return filter; }
+    void setFilter(int value) { filter = value; }
+
     //
     // Object overrides
     //
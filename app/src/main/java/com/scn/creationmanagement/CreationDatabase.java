@@ -1,8 +1,11 @@
 package com.scn.creationmanagement;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.arch.persistence.room.Database;
 import android.arch.persistence.room.RoomDatabase;
 import android.arch.persistence.room.TypeConverters;
+import android.arch.persistence.room.migration.Migration;
+import android.support.annotation.NonNull;
 
 /**
  * Created by imurvai on 2017-12-17.
@@ -13,11 +16,22 @@ import android.arch.persistence.room.TypeConverters;
         ControllerProfile.class,
         ControllerEvent.class,
         ControllerAction.class
-}, version = 1)
+}, version = 2)
 @TypeConverters({ ControllerEventTypeTypeContverer.class })
 abstract class CreationDatabase extends RoomDatabase {
 
     static final String DatabaseName = "brickcontroller_creation_db";
 
+    // Response settings of the controller actions, the dead zone default is the one formerly
+    // hard coded for every axis
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE controller_actions ADD COLUMN dead_zone INTEGER NOT NULL DEFAULT 4");
+            database.execSQL("ALTER TABLE controller_actions ADD COLUMN expo INTEGER NOT NULL DEFAULT 0");
+            database.execSQL("ALTER TABLE controller_actions ADD COLUMN filter INTEGER NOT NULL DEFAULT 0");
+        }
+    };
+
     public abstract CreationDao creationDao();
 }
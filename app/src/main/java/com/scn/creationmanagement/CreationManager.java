@@ -393,7 +393,7 @@ public final class CreationManager {
     }
 
     @MainThread
-    public boolean addControllerActionAsync(@NonNull final ControllerEvent controllerEvent, @NonNull String deviceId, int channel, boolean isRevert, boolean isToggle, int maxOutput) {
+    public boolean addControllerActionAsync(@NonNull final ControllerEvent controllerEvent, @NonNull String deviceId, int channel, boolean isRevert, boolean isToggle, int maxOutput, int deadZone, int expo, int filter) {
         Logger.i(TAG, "addControllerActionAsync - " + deviceId + ", channel: " + channel);
 
         if (getCurrentState() != State.OK) {
@@ -404,7 +404,7 @@ public final class CreationManager {
         setState(State.INSERTING, false);
 
         Single.fromCallable(() -> {
-            ControllerAction controllerAction = new ControllerAction(0, controllerEvent.getId(), deviceId, channel, isRevert, isToggle, maxOutput);
+            ControllerAction controllerAction = new ControllerAction(0, controllerEvent.getId(), deviceId, channel, isRevert, isToggle, maxOutput, deadZone, expo, filter);
             creationRepository.insertControllerAction(controllerEvent, controllerAction);
             return controllerAction;
         })
@@ -464,7 +464,10 @@ public final class CreationManager {
                                                int channel,
                                                boolean isRevert,
                                                boolean isToggle,
-                                               int maxOutput) {
+                                               int maxOutput,
+                                               int deadZone,
+                                               int expo,
+                                               int filter) {
         Logger.i(TAG, "updateControllerActionAsync - " + controllerAction);
 
         if (getCurrentState() != State.OK) {
@@ -475,7 +478,7 @@ public final class CreationManager {
         setState(State.UPDATING, false);
 
         Single.fromCallable(() -> {
-            creationRepository.updateControllerAction(controllerAction, deviceId, channel, isRevert, isToggle, maxOutput);
+            creationRepository.updateControllerAction(controllerAction, deviceId, channel, isRevert, isToggle, maxOutput, deadZone, expo, filter);
             return true;
         })
                 .subscribeOn(Schedulers.io())
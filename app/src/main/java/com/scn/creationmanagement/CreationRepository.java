@@ -41,7 +41,9 @@ final class CreationRepository {
     CreationRepository(@NonNull Context context) {
         Logger.i(TAG, "constructor...");
 
-        CreationDatabase database = Room.databaseBuilder(context, CreationDatabase.class, CreationDatabase.DatabaseName).build();
+        CreationDatabase database = Room.databaseBuilder(context, CreationDatabase.class, CreationDatabase.DatabaseName)
+                .addMigrations(CreationDatabase.MIGRATION_1_2)
+                .build();
         creationDao = database.creationDao();
 
         creationListLiveData.setValue(new ArrayList<>());
@@ -192,7 +194,10 @@ final class CreationRepository {
                                              int channel,
                                              boolean isInvert,
                                              boolean isToggle,
-                                             int maxOutput) {
+                                             int maxOutput,
+                                             int deadZone,
+                                             int expo,
+                                             int filter) {
         Logger.i(TAG, "updateControllerAction - " + controllerAction);
 
         String originalDeviceId = controllerAction.getDeviceId();
@@ -200,6 +205,9 @@ final class CreationRepository {
         boolean originalIsInvert = controllerAction.getIsInvert();
         boolean originalIsToggle = controllerAction.getIsToggle();
         int originalMaxOutput = controllerAction.getMaxOutput();
+        int originalDeadZone = controllerAction.getDeadZone();
+        int originalExpo = controllerAction.getExpo();
+        int originalFilter = controllerAction.getFilter();
 
         try {
             controllerAction.setDeviceId(deviceId);
@@ -207,6 +215,9 @@ final class CreationRepository {
             controllerAction.setIsInvert(isInvert);
             controllerAction.setIsToggle(isToggle);
             controllerAction.setMaxOutput(maxOutput);
+            controllerAction.setDeadZone(deadZone);
+            controllerAction.setExpo(expo);
+            controllerAction.setFilter(filter);
             creationDao.updateControllerAction(controllerAction);
         }
         catch (Exception e) {
@@ -216,6 +227,9 @@ final class CreationRepository {
             controllerAction.setIsInvert(originalIsInvert);
             controllerAction.setIsToggle(originalIsToggle);
             controllerAction.setMaxOutput(originalMaxOutput);
+            controllerAction.setDeadZone(originalDeadZone);
+            controllerAction.setExpo(originalExpo);
+            controllerAction.setFilter(originalFilter);
         }
 
         creationListLiveData.postValue(creationList);
@@ -0,0 +1,101 @@
+package com.scn.devicemanagement;
+
+/**
+ * Classifies bluetooth LE advertisements by the company ID of their manufacturer specific data.
+ *
+ * The raw scan record is walked in place as a sequence of AD structures
+ * ([length][type][data...], a zero length ends the record), so nothing is allocated.
+ */
+
+final class AdvertisementParser {
+
+    //
+    // Constants
+    //
+
+    static final int MANUFACTURER_ID_SBRICK = 0x0198;
+    static final int MANUFACTURER_ID_BUWIZZ = 0x4D48;
+    static final int MANUFACTURER_ID_BUWIZZ2 = 0x054E;
+
+    static final int NO_MANUFACTURER_ID = -1;
+
+    private static final int AD_TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    //
+    // Constructor
+    //
+
+    private AdvertisementParser() {}
+
+    //
+    // API
+    //
+
+    /**
+     * Every manufacturer specific data structure of the record is matched, not just the first one.
+     * @return the device type of the advertisement, null if it is not a supported device.
+     */
+    static Device.DeviceType getDeviceType(byte[] scanRecord) {
+        int index = findManufacturerData(scanRecord, 0);
+        while (index >= 0) {
+            switch (getCompanyId(scanRecord, index)) {
+                case MANUFACTURER_ID_SBRICK: return Device.DeviceType.SBRICK;
+                case MANUFACTURER_ID_BUWIZZ: return Device.DeviceType.BUWIZZ;
+                case MANUFACTURER_ID_BUWIZZ2: return Device.DeviceType.BUWIZZ2;
+            }
+
+            index = findManufacturerData(scanRecord, index + 1 + (scanRecord[index] & 0xFF));
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the little endian company ID of the first manufacturer specific data structure,
+     * {@link #NO_MANUFACTURER_ID} if there is none or the record is malformed.
+     */
+    static int getManufacturerId(byte[] scanRecord) {
+        int index = findManufacturerData(scanRecord, 0);
+        return index >= 0 ? getCompanyId(scanRecord, index) : NO_MANUFACTURER_ID;
+    }
+
+    //
+    // Private methods
+    //
+
+    /**
+     * @return the start of the first intact manufacturer specific data structure with a company ID
+     * at or after the index, -1 if there is none.
+     */
+    private static int findManufacturerData(byte[] scanRecord, int index) {
+        if (scanRecord == null) {
+            return -1;
+        }
+
+        while (index < scanRecord.length) {
+            int length = scanRecord[index] & 0xFF;
+            if (length == 0) {
+                break;
+            }
+
+            // The length covers the type and the data
+            int end = index + 1 + length;
+            if (scanRecord.length < end) {
+                break;
+            }
+
+            int type = scanRecord[index + 1] & 0xFF;
+            if (type == AD_TYPE_MANUFACTURER_SPECIFIC_DATA && 3 <= length) {
+                return index;
+            }
+
+            index = end;
+        }
+
+        return -1;
+    }
+
+    private static int getCompanyId(byte[] scanRecord, int index) {
+        return (scanRecord[index + 2] & 0xFF) | ((scanRecord[index + 3] & 0xFF) << 8);
+    }
+}
@@ -0,0 +1,189 @@
+package com.scn.devicemanagement;
+
+import android.media.AudioAttributes;
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTrack;
+import android.os.Build;
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.scn.logger.Logger;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Infra red emitter driven by the audio jack, for phones without a built-in one.
+ *
+ * Patterns are rendered to PCM the first time they are transmitted and the waveform is cached,
+ * the transmitted patterns come from a prebuilt table so they are keyed by identity.
+ *
+ * A stream mode audio track blocks the write until its buffer has room, so the waveforms are
+ * written on the emitter's own thread and transmit never blocks the output thread. If the writer
+ * falls behind, the oldest pending frame is dropped, the newest one carries the current outputs.
+ */
+
+final class AudioIrEmitter implements InfraRedEmitter {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = AudioIrEmitter.class.getSimpleName();
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int MAX_PENDING_FRAMES = 2;
+
+    private AudioTrack audioTrack = null;
+    private Thread writerThread = null;
+    private final BlockingQueue<short[]> pendingWaveforms = new ArrayBlockingQueue<>(MAX_PENDING_FRAMES);
+    private InfraRedPcmGenerator pcmGenerator = null;
+    private int pcmGeneratorCarrierFrequency = 0;
+
+    // Accessed only on the output thread
+    private final Map<int[], short[]> waveformCache = new IdentityHashMap<>();
+    private int droppedFrameCount = 0;
+
+    //
+    // Constructor
+    //
+
+    AudioIrEmitter() {
+        Logger.i(TAG, "constructor...");
+    }
+
+    //
+    // InfraRedEmitter overrides
+    //
+
+    @Override
+    public boolean isSupported(int carrierFrequency) {
+        // The channels carry half the carrier frequency, it has to stay below the Nyquist
+        // frequency: a 19 kHz sine for the 38 kHz carrier at 48 kHz sampling
+        return carrierFrequency < SAMPLE_RATE;
+    }
+
+    @Override
+    public synchronized void open() {
+        Logger.i(TAG, "open...");
+
+        if (audioTrack != null) {
+            return;
+        }
+
+        int bufferSize = AudioTrack.getMinBufferSize(SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO, AudioFormat.ENCODING_PCM_16BIT);
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                audioTrack = new AudioTrack.Builder()
+                        .setAudioAttributes(new AudioAttributes.Builder()
+                                .setUsage(AudioAttributes.USAGE_GAME)
+                                .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                                .build())
+                        .setAudioFormat(new AudioFormat.Builder()
+                                .setSampleRate(SAMPLE_RATE)
+                                .setChannelMask(AudioFormat.CHANNEL_OUT_STEREO)
+                                .setEncoding(AudioFormat.ENCODING_PCM_16BIT)
+                                .build())
+                        .setBufferSizeInBytes(bufferSize)
+                        .setTransferMode(AudioTrack.MODE_STREAM)
+                        .setPerformanceMode(AudioTrack.PERFORMANCE_MODE_LOW_LATENCY)
+                        .build();
+            }
+            else {
+                audioTrack = new AudioTrack(
+                        AudioManager.STREAM_MUSIC,
+                        SAMPLE_RATE,
+                        AudioFormat.CHANNEL_OUT_STEREO,
+                        AudioFormat.ENCODING_PCM_16BIT,
+                        bufferSize,
+                        AudioTrack.MODE_STREAM);
+            }
+
+            audioTrack.play();
+        }
+        catch (Exception e) {
+            Logger.e(TAG, "Failed to create the audio track.", e);
+            audioTrack = null;
+            return;
+        }
+
+        pendingWaveforms.clear();
+        droppedFrameCount = 0;
+        startWriterThread(audioTrack);
+    }
+
+    @Override
+    public synchronized void close() {
+        Logger.i(TAG, "close...");
+
+        if (audioTrack == null) {
+            return;
+        }
+
+        // Stopping the track releases a write blocked on the full buffer
+        writerThread.interrupt();
+        audioTrack.stop();
+        try { writerThread.join(); } catch (InterruptedException ignored) {}
+        writerThread = null;
+
+        Logger.i(TAG, "  Dropped frames: " + droppedFrameCount);
+
+        audioTrack.flush();
+        audioTrack.release();
+        audioTrack = null;
+        pendingWaveforms.clear();
+    }
+
+    @Override
+    public void transmit(int carrierFrequency, @NonNull int[] pattern) {
+        short[] waveform = getWaveform(carrierFrequency, pattern);
+
+        while (!pendingWaveforms.offer(waveform)) {
+            pendingWaveforms.poll();
+            droppedFrameCount++;
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private void startWriterThread(@NonNull AudioTrack track) {
+        writerThread = new Thread(() -> {
+            Logger.i(TAG, "Entering the writer thread...");
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    short[] waveform = pendingWaveforms.take();
+                    track.write(waveform, 0, waveform.length);
+                }
+            }
+            catch (InterruptedException ignored) {}
+
+            Logger.i(TAG, "Exiting from the writer thread.");
+        });
+        writerThread.setName("AudioIrEmitter");
+        writerThread.start();
+    }
+
+    private short[] getWaveform(int carrierFrequency, @NonNull int[] pattern) {
+        if (pcmGenerator == null || pcmGeneratorCarrierFrequency != carrierFrequency) {
+            pcmGenerator = new InfraRedPcmGenerator(SAMPLE_RATE, carrierFrequency);
+            pcmGeneratorCarrierFrequency = carrierFrequency;
+            waveformCache.clear();
+        }
+
+        short[] waveform = waveformCache.get(pattern);
+        if (waveform == null) {
+            waveform = pcmGenerator.render(pattern);
+            waveformCache.put(pattern, waveform);
+        }
+
+        return waveform;
+    }
+}
@@ -8,6 +8,11 @@ import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 
@@ -20,7 +25,7 @@ import java.util.UUID;
  * Created by steve on 2017. 03. 18..
  */
 
-abstract class BluetoothDevice extends Device {
+abstract class BluetoothDevice extends Device implements OutputScheduler.OutputSender, GattOperationQueue.Listener {
 
     //
     // Private and Protected members
@@ -28,11 +33,57 @@ abstract class BluetoothDevice extends Device {
 
     private static final String TAG = BluetoothDevice.class.getSimpleName();
 
+    private static final int OUTPUT_PERIOD_MS = 60;
+    private static final int MIN_WRITE_SPACING_MS = 20;
+    private static final int MIN_MEASURED_WRITE_SPACING_MS = 8;
+    private static final int WRITE_TIMEOUT_MS = 200;
+    private static final int MAX_SEND_ATTEMPTS = 4;
+
+    private static final int RSSI_POLL_INTERVAL_MS = 1000;
+
+    private static final UUID DESCRIPTOR_UUID_CLIENT_CHARACTERISTIC_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
     protected final Context context;
     private final android.bluetooth.BluetoothDevice bluetoothDevice;
+    private final OutputScheduler outputScheduler;
+    private final GattLayoutCache gattLayoutCache;
+
+    // The thread and its handler are changed on the main thread, the rest is confined to the connection thread
+    private HandlerThread connectionThread = null;
+    private HandlerThread previousConnectionThread = null;
+    private volatile Handler connectionHandler = null;
+    private BluetoothGatt bluetoothGatt = null;
+    private State connectionState = State.DISCONNECTED;
+
+    protected final OutputState outputState = new OutputState();
+    private final GattOperationQueue gattOperationQueue = new GattOperationQueue(this, WRITE_TIMEOUT_MS);
+    private final ConnectionIntervalEstimator connectionIntervalEstimator = new ConnectionIntervalEstimator();
+    private volatile boolean isHighLinkPriority = false;
+    private final TelemetryRecorder telemetryRecorder = new TelemetryRecorder(telemetryLiveData, new TelemetryRecorder.Scheduler() {
+        @Override
+        public long uptimeMillis() {
+            return SystemClock.uptimeMillis();
+        }
 
-    BluetoothGatt bluetoothGatt = null;
-    private final Object bluetoothGattLock = new Object();
+        @Override
+        public void postDelayed(@NonNull Runnable runnable, long delayMs) {
+            // Dropped after a disconnect, the recorder is reset by the next connect
+            Handler handler = connectionHandler;
+            if (handler != null) {
+                handler.postDelayed(runnable, delayMs);
+            }
+        }
+    });
+    private final Runnable telemetryPollRunnable = this::pollTelemetry;
+    private final LinkHealthMonitor linkHealthMonitor = new LinkHealthMonitor();
+    private final Runnable rssiPollRunnable = this::pollRssi;
+
+    // Accessed only on the output thread
+    private int lastSentVersion = -1;
+    private int sendAttemptsLeft = 0;
+    private long lastSendTime = 0;
+    private boolean isStopFrame = false;
+    private int writeSpacingMs = MIN_WRITE_SPACING_MS;
 
     //
     // Constructor
@@ -43,51 +94,140 @@ abstract class BluetoothDevice extends Device {
 
         this.context = context;
         this.bluetoothDevice = bluetoothDeviceManager.getBluetoothAdapter().getRemoteDevice(address);
+        this.outputScheduler = bluetoothDeviceManager.getOutputScheduler();
+        this.gattLayoutCache = bluetoothDeviceManager.getGattLayoutCache();
     }
 
     //
     // API
     //
 
-    @MainThread
     @Override
-    public boolean connect() {
-        Logger.i(TAG, "connectDevice - " + this);
+    public int getNumberOfChannels() {
+        return OutputState.MAX_CHANNELS;
+    }
 
-        synchronized (bluetoothGattLock) {
-            if (bluetoothGatt != null) {
-                Logger.w(TAG, "  GATT is already been used.");
-                return false;
-            }
+    @Override
+    public int getOutput(int channel) {
+        checkChannel(channel);
+        return outputState.get(channel);
+    }
 
-            bluetoothGatt = bluetoothDevice.connectGatt(context, true, gattCallback);
-            if (bluetoothGatt == null) {
-                Logger.w(TAG, "  Failed to connect GATT.");
-                return false;
-            }
+    @Override
+    public void setOutput(int channel, int value) {
+        //Logger.i(TAG, "setOutput - channel: " + channel + ", value: " + value);
+        checkChannel(channel);
+        value = limitOutputValue(value);
 
-            setState(State.CONNECTING, false);
-            return true;
+        if (outputState.set(channel, value, getFrameEncoder())) {
+            wakeUpOutput();
         }
     }
 
+    @MainThread
+    @Override
+    public boolean connect() {
+        return connect(true);
+    }
+
+    /**
+     * @param isAutoConnect direct connect (false) is faster but gives up after a while, auto
+     * connect (true) waits for the device in the background.
+     */
+    @MainThread
+    boolean connect(boolean isAutoConnect) {
+        Logger.i(TAG, "connectDevice - " + this + ", auto connect: " + isAutoConnect);
+
+        Handler handler = getConnectionHandler();
+        handler.post(() -> connectInternal(isAutoConnect, handler));
+        return true;
+    }
+
     @MainThread
     @Override
     public boolean disconnect() {
         Logger.i(TAG, "disconnectDevice - " + this);
 
-        synchronized (bluetoothGattLock) {
-            if (bluetoothGatt != null) {
-                Logger.i(TAG, "  Disconnecting GATT...");
-                bluetoothGatt.disconnect();
-                bluetoothGatt.close();
-                bluetoothGatt = null;
-            }
+        if (connectionThread == null) {
+            Logger.i(TAG, "  Not connected.");
+            return true;
+        }
 
-            disconnectInternal();
-            setState(State.DISCONNECTED, false);
+        connectionHandler.post(this::disconnectInternalGatt);
+
+        // The thread finishes the pending events before quitting, a later connect waits for it
+        connectionThread.quitSafely();
+        previousConnectionThread = connectionThread;
+        connectionThread = null;
+        connectionHandler = null;
+        return true;
+    }
+
+    //
+    // OutputScheduler.OutputSender overrides
+    //
+
+    @Override
+    public boolean onOutputTick() {
+        updateWriteSpacing();
+
+        long snapshot = outputState.snapshot();
+
+        boolean isChanged = false;
+        int version = OutputState.getVersion(snapshot);
+        if (version != lastSentVersion) {
+            lastSentVersion = version;
+            sendAttemptsLeft = MAX_SEND_ATTEMPTS;
+            isChanged = true;
+        }
+
+        if (sendAttemptsLeft <= 0) {
+            return false;
+        }
+
+        boolean isAllZero = OutputState.isAllZero(snapshot, getFrameEncoder());
+        int keepAliveIntervalMs = getKeepAlivePolicy().keepAliveIntervalMs;
+
+        // Unchanged non-zero values are only resent as keepalive
+        long now = SystemClock.uptimeMillis();
+        if (!isChanged && !isAllZero && now - lastSendTime < keepAliveIntervalMs) {
+            outputScheduler.setNextTickDelay(this, (int)(lastSendTime + keepAliveIntervalMs - now));
             return true;
         }
+
+        int value0 = OutputState.getValue(snapshot, 0);
+        int value1 = OutputState.getValue(snapshot, 1);
+        int value2 = OutputState.getValue(snapshot, 2);
+        int value3 = OutputState.getValue(snapshot, 3);
+
+        // The first frame stopping every output jumps the queue
+        isStopFrame = isChanged && isAllZero;
+        if (sendOutputValues(value0, value1, value2, value3)) {
+            lastSendTime = now;
+
+            if (!isAllZero) {
+                sendAttemptsLeft = MAX_SEND_ATTEMPTS;
+                outputScheduler.setNextTickDelay(this, keepAliveIntervalMs);
+            }
+            else {
+                Logger.i(TAG, "All outputs zero, send attempts left: " + sendAttemptsLeft);
+                sendAttemptsLeft--;
+            }
+        }
+        else {
+            sendAttemptsLeft = MAX_SEND_ATTEMPTS;
+        }
+
+        return sendAttemptsLeft > 0;
+    }
+
+    //
+    // GattOperationQueue.Listener overrides
+    //
+
+    @Override
+    public void onDriveLaneDrained() {
+        outputScheduler.onWriteCompleted(this);
     }
 
     //
@@ -97,37 +237,126 @@ abstract class BluetoothDevice extends Device {
     protected abstract boolean onServiceDiscovered(BluetoothGatt gatt);
     protected abstract boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic);
     protected abstract boolean onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic);
+
+    /**
+     * Called with the notifications of the characteristics enabled by
+     * {@link #enableNotifications(BluetoothGatt, BluetoothGattCharacteristic)}.
+     */
+    protected void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {}
+
+    /**
+     * @return how often {@link #onTelemetryPoll()} has to be called while connected, 0 if the
+     * device does not have to be polled.
+     */
+    protected int getTelemetryPollIntervalMs() {
+        return 0;
+    }
+
+    protected void onTelemetryPoll() {}
     protected abstract void disconnectInternal();
+    protected abstract FrameEncoder getFrameEncoder();
+    protected abstract boolean sendOutputValues(int v0, int v1, int v2, int v3);
 
-    BluetoothGattCharacteristic getGattCharacteristic(@NonNull BluetoothGatt gatt, @NonNull String serviceUUID, @NonNull String characteristicUUID) {
-        Logger.i(TAG, "getGattCharacteristic...");
-        Logger.i(TAG, "  Service UUID       : " + serviceUUID);
-        Logger.i(TAG, "  Characteristic UUID: " + characteristicUUID);
+    protected int getOutputPeriodMs() {
+        return OUTPUT_PERIOD_MS;
+    }
 
-        BluetoothGattService service = getService(gatt, serviceUUID);
-        if (service == null) {
-            Logger.i(TAG, "  Service is null.");
-            return null;
-        }
+    protected boolean isWriteFlowControlEnabled() {
+        return true;
+    }
 
-        if (characteristicUUID.length() == 4) {
-            Logger.i(TAG, "  Partial characteristic UUID");
-            String partialUUID = "0000" + characteristicUUID;
-            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-                if (characteristic.getUuid().toString().startsWith(partialUUID))
-                    return characteristic;
-            }
+    protected void wakeUpOutput() {
+        outputScheduler.wakeUp(this);
+    }
+
+    protected void resetOutputs() {
+        Logger.i(TAG, "resetOutputs - device: " + this);
+        outputState.reset();
+        wakeUpOutput();
+    }
+
+    /**
+     * Sends the current output values again, for settings encoded into the drive frame.
+     */
+    protected void resendOutputs() {
+        outputState.invalidate();
+        wakeUpOutput();
+    }
+
+    /**
+     * Queues a drive frame, only the latest one is kept if the previous one has not been written
+     * yet. To be called from {@link #sendOutputValues(int, int, int, int)}.
+     */
+    protected boolean writeDriveFrame(@NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        return writeCharacteristic(isStopFrame ? GattOperationQueue.Lane.EMERGENCY_STOP : GattOperationQueue.Lane.DRIVE, characteristic, value);
+    }
+
+    /**
+     * Queues a configuration command, it is written before any pending drive frame.
+     */
+    protected boolean writeConfig(@NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        return writeCharacteristic(GattOperationQueue.Lane.CONFIG, characteristic, value);
+    }
+
+    /**
+     * Asks for a short connection interval (high priority) while the device is being driven and a
+     * balanced one otherwise. Kept across reconnects.
+     */
+    @MainThread
+    void setHighLinkPriority(boolean isHighLinkPriority) {
+        Logger.i(TAG, "setHighLinkPriority - " + this + ", high: " + isHighLinkPriority);
+        this.isHighLinkPriority = isHighLinkPriority;
+
+        if (connectionHandler != null) {
+            connectionHandler.post(this::applyLinkPriority);
         }
-        else {
-            Logger.i(TAG, "  Full characteristic UUID");
-            BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristicUUID));
-            if (characteristic != null) {
-                return characteristic;
-            }
+    }
+
+    /**
+     * @return the connection interval estimated from the write round trips, -1 if not known yet.
+     */
+    int getConnectionIntervalEstimateMs() {
+        return connectionIntervalEstimator.getEstimateMs();
+    }
+
+    protected TelemetryRecorder getTelemetryRecorder() {
+        return telemetryRecorder;
+    }
+
+    /**
+     * Queues a read of the characteristic, the value arrives in
+     * {@link #onCharacteristicRead(BluetoothGatt, BluetoothGattCharacteristic)}.
+     */
+    protected boolean readCharacteristic(@NonNull BluetoothGattCharacteristic characteristic) {
+        return gattOperationQueue.enqueueRead(characteristic);
+    }
+
+    /**
+     * Enables the notifications of the characteristic on the device. To be called from
+     * {@link #onServiceDiscovered(BluetoothGatt)}.
+     */
+    protected boolean enableNotifications(@NonNull BluetoothGatt gatt, @NonNull BluetoothGattCharacteristic characteristic) {
+        Logger.i(TAG, "enableNotifications - " + characteristic.getUuid());
+
+        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(DESCRIPTOR_UUID_CLIENT_CHARACTERISTIC_CONFIG);
+        if (descriptor == null || !gatt.setCharacteristicNotification(characteristic, true)) {
+            Logger.w(TAG, "  Failed to enable notifications.");
+            return false;
         }
 
-        Logger.w(TAG, "  No such characteristic found.");
-        return null;
+        return gattOperationQueue.enqueueDescriptorWrite(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+    }
+
+    int getGattQueueDepth(@NonNull GattOperationQueue.Lane lane) {
+        return gattOperationQueue.getQueueDepth(lane);
+    }
+
+    int getGattDropCount(@NonNull GattOperationQueue.Lane lane) {
+        return gattOperationQueue.getDropCount(lane);
+    }
+
+    BluetoothGattCharacteristic getGattCharacteristic(@NonNull BluetoothGatt gatt, @NonNull UUID serviceUuid, @NonNull UUID characteristicUuid) {
+        return gattLayoutCache.getCharacteristic(getAddress(), gatt, serviceUuid, characteristicUuid);
     }
 
     protected void logServices(@NonNull BluetoothGatt gatt) {
@@ -155,94 +384,293 @@ abstract class BluetoothDevice extends Device {
     // Private methods
     //
 
-    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+    private void updateWriteSpacing() {
+        // The writes are not spaced closer than the link is able to deliver them, devices written
+        // without response never get an estimate and keep the default spacing
+        int estimateMs = connectionIntervalEstimator.getEstimateMs();
+        int newWriteSpacingMs = estimateMs < 0 ? MIN_WRITE_SPACING_MS : Math.max(MIN_MEASURED_WRITE_SPACING_MS, Math.min(estimateMs, WRITE_TIMEOUT_MS));
+        if (newWriteSpacingMs != writeSpacingMs) {
+            writeSpacingMs = newWriteSpacingMs;
+            outputScheduler.setPeriod(this, writeSpacingMs);
+        }
+    }
 
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            Logger.i(TAG, "onConnectionStateChange - device: " + BluetoothDevice.this);
+    private boolean writeCharacteristic(@NonNull GattOperationQueue.Lane lane, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        // Only the drive frames are flow controlled, the config lane does not hold back the ticks
+        if (lane == GattOperationQueue.Lane.CONFIG) {
+            return gattOperationQueue.enqueue(lane, characteristic, value);
+        }
 
-            if (status != BluetoothGatt.GATT_SUCCESS) {
-                Logger.w(TAG, "  GATT status - " + status);
-                setState(State.DISCONNECTED, true);
-                return;
-            }
+        // The scheduler has to know about the write before the completion callback may arrive
+        outputScheduler.onWriteIssued(this);
 
-            switch (newState) {
-                case BluetoothProfile.STATE_CONNECTING:
-                    Logger.i(TAG, "  Connecting.");
-                    synchronized (bluetoothGattLock) {
-                        if (bluetoothGatt == null) {
-                            Logger.w(TAG, "  Disconnect has been called.");
-                            return;
-                        }
-
-                        setState(State.CONNECTING, false);
-                    }
-                    break;
-
-                case BluetoothProfile.STATE_CONNECTED:
-                    Logger.i(TAG, "  Connected.");
-                    synchronized (bluetoothGattLock) {
-                        if (bluetoothGatt != null) {
-                            Logger.i(TAG, "  Start service discovery...");
-                            bluetoothGatt.discoverServices();
-                        }
-                        else {
-                            Logger.w(TAG, "  Disconnect has been called, skipping service discovery.");
-                        }
-                    }
-                    break;
-
-                case BluetoothProfile.STATE_DISCONNECTING:
-                    Logger.i(TAG, "  Disconnecting.");
-                    synchronized (bluetoothGattLock) {
-                        if (bluetoothGatt == null) {
-                            Logger.w(TAG, "  Disconnect has been called.");
-                            return;
-                        }
-
-                        setState(State.DISCONNECTING, false);
-                    }
-                    break;
-
-                case BluetoothProfile.STATE_DISCONNECTED:
-                    Logger.i(TAG, "  Disconnected.");
-                    synchronized (bluetoothGattLock) {
-                        if (bluetoothGatt == null) {
-                            Logger.w(TAG, "  Disconnect has been called.");
-                            return;
-                        }
-
-                        setState(State.DISCONNECTED, false);
-                    }
-                    break;
-            }
+        boolean isQueued = gattOperationQueue.enqueue(lane, characteristic, value);
+        if (gattOperationQueue.isDriveLaneIdle()) {
+            outputScheduler.onWriteCompleted(this);
         }
 
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            Logger.i(TAG, "onServicesDiscovered - device: " + BluetoothDevice.this);
+        return isQueued;
+    }
 
-            if (status != BluetoothGatt.GATT_SUCCESS) {
-                Logger.w(TAG, "  GATT status - " + status);
-                return;
+    //
+    // Connection thread
+    //
+
+    @MainThread
+    private Handler getConnectionHandler() {
+        if (connectionHandler == null) {
+            connectionThread = new HandlerThread("BluetoothDevice-" + getAddress());
+            connectionThread.start();
+            connectionHandler = new Handler(connectionThread.getLooper());
+
+            HandlerThread threadToWaitFor = previousConnectionThread;
+            previousConnectionThread = null;
+            if (threadToWaitFor != null) {
+                // Keeps the events of the previous connection in order with the new ones
+                connectionHandler.post(() -> {
+                    try { threadToWaitFor.join(); } catch (InterruptedException ignored) {}
+                });
             }
+        }
 
-            synchronized (bluetoothGattLock) {
-                if (bluetoothGatt == null) {
-                    Logger.w(TAG, "  Disconnect has been called.");
-                    return;
-                }
+        return connectionHandler;
+    }
 
-                if (!BluetoothDevice.this.onServiceDiscovered(gatt)) {
-                    Logger.w(TAG, "  Service discovery failed, trying to reconnect...");
-                    gatt.disconnect();
-                    gatt.connect();
-                    return;
-                }
+    private void runOnConnectionThread(@NonNull Runnable runnable) {
+        Handler handler = connectionHandler;
+        if (handler == null) {
+            Logger.w(TAG, "  Disconnect has been called, dropping connection event.");
+            return;
+        }
 
-                setState(State.CONNECTED, false);
+        if (Looper.myLooper() == handler.getLooper()) {
+            runnable.run();
+        }
+        else {
+            handler.post(runnable);
+        }
+    }
+
+    private void connectInternal(boolean isAutoConnect, @NonNull Handler handler) {
+        if (bluetoothGatt != null) {
+            // The caller waits for a state, it gets the one of the connection in progress
+            Logger.w(TAG, "  GATT is already been used, state: " + connectionState);
+            if (connectionState == State.CONNECTING || connectionState == State.CONNECTED) {
+                publishState(connectionState, false);
             }
+            else {
+                publishState(State.DISCONNECTED, true);
+            }
+            return;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // The callbacks arrive right on the connection thread
+            bluetoothGatt = bluetoothDevice.connectGatt(context, isAutoConnect, gattCallback, android.bluetooth.BluetoothDevice.TRANSPORT_LE, android.bluetooth.BluetoothDevice.PHY_LE_1M_MASK, handler);
+        }
+        else {
+            bluetoothGatt = bluetoothDevice.connectGatt(context, isAutoConnect, gattCallback);
+        }
+
+        if (bluetoothGatt == null) {
+            Logger.w(TAG, "  Failed to connect GATT.");
+            publishState(State.DISCONNECTED, true);
+            return;
+        }
+
+        gattOperationQueue.open(bluetoothGatt);
+        connectionIntervalEstimator.reset();
+        telemetryRecorder.reset();
+        linkHealthMonitor.reset();
+
+        if (isWriteFlowControlEnabled()) {
+            outputScheduler.registerWriteFlowControlled(this, MIN_WRITE_SPACING_MS, WRITE_TIMEOUT_MS);
+        }
+        else {
+            outputScheduler.register(this, getOutputPeriodMs());
+        }
+
+        publishState(State.CONNECTING, false);
+    }
+
+    private void disconnectInternalGatt() {
+        if (bluetoothGatt != null) {
+            Logger.i(TAG, "  Disconnecting GATT...");
+            gattOperationQueue.close();
+            bluetoothGatt.disconnect();
+            bluetoothGatt.close();
+            bluetoothGatt = null;
+        }
+
+        outputScheduler.unregister(this);
+        Logger.i(TAG, "  Sends saved by wire resolution change detection: " + outputState.getSavedSendCount());
+        for (GattOperationQueue.Lane lane : GattOperationQueue.Lane.values()) {
+            Logger.i(TAG, "  Dropped " + lane + " writes: " + gattOperationQueue.getDropCount(lane));
+        }
+        Logger.i(TAG, "  Stale GATT completions: " + gattOperationQueue.getStaleCompletionCount());
+        Logger.i(TAG, "  Connection interval estimate: " + connectionIntervalEstimator.getEstimateMs() + " ms");
+        disconnectInternal();
+        publishState(State.DISCONNECTED, false);
+    }
+
+    private void onConnectionStateChangeInternal(@NonNull BluetoothGatt gatt, int status, int newState) {
+        if (gatt != bluetoothGatt) {
+            Logger.w(TAG, "  Event of a closed GATT, ignoring.");
+            return;
+        }
+
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Logger.w(TAG, "  GATT status - " + status);
+            publishState(State.DISCONNECTED, true, createLinkHealthReport(status));
+            return;
+        }
+
+        switch (newState) {
+            case BluetoothProfile.STATE_CONNECTING:
+                Logger.i(TAG, "  Connecting.");
+                publishState(State.CONNECTING, false);
+                break;
+
+            case BluetoothProfile.STATE_CONNECTED:
+                Logger.i(TAG, "  Connected, start service discovery...");
+                gatt.discoverServices();
+                break;
+
+            case BluetoothProfile.STATE_DISCONNECTING:
+                Logger.i(TAG, "  Disconnecting.");
+                publishState(State.DISCONNECTING, false);
+                break;
+
+            case BluetoothProfile.STATE_DISCONNECTED:
+                Logger.i(TAG, "  Disconnected.");
+                publishState(State.DISCONNECTED, false, createLinkHealthReport(status));
+                break;
+        }
+    }
+
+    private void onServicesDiscoveredInternal(@NonNull BluetoothGatt gatt, int status) {
+        if (gatt != bluetoothGatt) {
+            Logger.w(TAG, "  Event of a closed GATT, ignoring.");
+            return;
+        }
+
+        if (status != BluetoothGatt.GATT_SUCCESS) {
+            Logger.w(TAG, "  GATT status - " + status);
+            publishState(State.DISCONNECTED, true);
+            return;
+        }
+
+        if (!gattLayoutCache.onServicesDiscovered(getAddress(), gatt)) {
+            Logger.w(TAG, "  GATT layout has changed since the last connection.");
+            logServices(gatt);
+        }
+
+        if (!BluetoothDevice.this.onServiceDiscovered(gatt)) {
+            // Reconnecting is left to the caller, it retries with backoff
+            Logger.w(TAG, "  Service discovery failed.");
+            publishState(State.DISCONNECTED, true);
+            return;
+        }
+
+        publishState(State.CONNECTED, false);
+        applyLinkPriority();
+        startTelemetryPoll();
+        startRssiPoll();
+    }
+
+    private void startRssiPoll() {
+        Handler handler = connectionHandler;
+        if (handler == null) {
+            return;
+        }
+
+        handler.removeCallbacks(rssiPollRunnable);
+        handler.postDelayed(rssiPollRunnable, RSSI_POLL_INTERVAL_MS);
+    }
+
+    private void pollRssi() {
+        Handler handler = connectionHandler;
+        if (handler == null || connectionState != State.CONNECTED) {
+            return;
+        }
+
+        if (!gattOperationQueue.enqueueRemoteRssiRead()) {
+            Logger.w(TAG, "  Failed to queue remote RSSI read.");
+        }
+
+        handler.postDelayed(rssiPollRunnable, RSSI_POLL_INTERVAL_MS);
+    }
+
+    private LinkHealthReport createLinkHealthReport(int gattStatus) {
+        LinkHealthReport linkHealthReport = linkHealthMonitor.createReport(gattStatus);
+        Logger.w(TAG, "  Link health - " + linkHealthReport);
+        return linkHealthReport;
+    }
+
+    private void startTelemetryPoll() {
+        Handler handler = connectionHandler;
+        if (handler == null || getTelemetryPollIntervalMs() <= 0) {
+            return;
+        }
+
+        handler.removeCallbacks(telemetryPollRunnable);
+        handler.post(telemetryPollRunnable);
+    }
+
+    private void pollTelemetry() {
+        Handler handler = connectionHandler;
+        if (handler == null || connectionState != State.CONNECTED) {
+            return;
+        }
+
+        onTelemetryPoll();
+        handler.postDelayed(telemetryPollRunnable, getTelemetryPollIntervalMs());
+    }
+
+    private void applyLinkPriority() {
+        if (bluetoothGatt == null || connectionState != State.CONNECTED || Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+
+        int priority = isHighLinkPriority ? BluetoothGatt.CONNECTION_PRIORITY_HIGH : BluetoothGatt.CONNECTION_PRIORITY_BALANCED;
+        if (!bluetoothGatt.requestConnectionPriority(priority)) {
+            Logger.w(TAG, "  Failed to request connection priority.");
+            return;
+        }
+
+        // The round trips measured with the previous interval are no longer valid
+        connectionIntervalEstimator.reset();
+    }
+
+    private void publishState(@NonNull State newState, boolean isError) {
+        publishState(newState, isError, null);
+    }
+
+    private void publishState(@NonNull State newState, boolean isError, Object data) {
+        Logger.i(TAG, "publishState - " + connectionState + " -> " + newState);
+        State previousState = connectionState;
+        connectionState = newState;
+        postState(previousState, newState, isError, data);
+    }
+
+    //
+    // GATT callback
+    //
+
+    // Connection events are handed over to the connection thread, operation completions and
+    // notifications are thread safe and are processed right away.
+    private final BluetoothGattCallback gattCallback = new BluetoothGattCallback() {
+
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            Logger.i(TAG, "onConnectionStateChange - device: " + BluetoothDevice.this);
+            runOnConnectionThread(() -> onConnectionStateChangeInternal(gatt, status, newState));
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            Logger.i(TAG, "onServicesDiscovered - device: " + BluetoothDevice.this);
+            runOnConnectionThread(() -> onServicesDiscoveredInternal(gatt, status));
         }
 
         @Override
@@ -250,6 +678,8 @@ abstract class BluetoothDevice extends Device {
             Logger.i(TAG, "onCharacteristicRead - device: " + BluetoothDevice.this);
             super.onCharacteristicRead(gatt, characteristic, status);
 
+            gattOperationQueue.onCharacteristicReadCompleted(characteristic);
+
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 Logger.w(TAG, "  GATT status - " + status);
                 return;
@@ -263,41 +693,61 @@ abstract class BluetoothDevice extends Device {
             //Logger.i(TAG, "onCharacteristicWrite - device: " + BluetoothDevice.this);
             super.onCharacteristicWrite(gatt, characteristic, status);
 
+            int roundTripTimeMs = gattOperationQueue.onCharacteristicWriteCompleted(characteristic);
+            if (roundTripTimeMs < 0) {
+                // Stale completion of a timed out write, its round trip is unknown
+                return;
+            }
+
+            linkHealthMonitor.addWrite(roundTripTimeMs, status);
+
             if (status != BluetoothGatt.GATT_SUCCESS) {
                 Logger.w(TAG, "  GATT status - " + status);
                 return;
             }
 
+            // A write without response completes as soon as it is queued locally, only the
+            // acknowledged ones span connection events
+            if (characteristic.getWriteType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) {
+                connectionIntervalEstimator.addRoundTripTime(roundTripTimeMs);
+            }
+
             BluetoothDevice.this.onCharacteristicWrite(gatt, characteristic);
         }
-    };
 
-    private BluetoothGattService getService(BluetoothGatt gatt, String uuid) {
-        Logger.i(TAG, "getService - " + uuid);
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            Logger.i(TAG, "onDescriptorWrite - device: " + BluetoothDevice.this);
+            super.onDescriptorWrite(gatt, descriptor, status);
 
-        if (gatt == null) {
-            Logger.w(TAG, "  No GATT yet.");
-            return null;
-        }
+            gattOperationQueue.onDescriptorWriteCompleted(descriptor);
 
-        if (uuid.length() == 4) {
-            Logger.i(TAG, "  Partial service UUID");
-            String partialUUID = "0000" + uuid;
-            for (BluetoothGattService service : gatt.getServices()) {
-                if (service.getUuid().toString().startsWith(partialUUID))
-                    return service;
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Logger.w(TAG, "  GATT status - " + status);
             }
         }
-        else {
-            Logger.i(TAG, "  Full service UUID");
-            BluetoothGattService service = gatt.getService(UUID.fromString(uuid));
-            if (service != null)
-                return service;
+
+        @Override
+        public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
+            super.onReadRemoteRssi(gatt, rssi, status);
+
+            gattOperationQueue.onRemoteRssiReadCompleted();
+
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                Logger.w(TAG, "onReadRemoteRssi - GATT status - " + status);
+                return;
+            }
+
+            linkHealthMonitor.addRssi(rssi);
+            setLinkRssi(rssi);
         }
 
-        Logger.i(TAG, "  No such service found.");
-        return null;
-    }
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            super.onCharacteristicChanged(gatt, characteristic);
+            BluetoothDevice.this.onCharacteristicChanged(gatt, characteristic);
+        }
+    };
 
     private void logCharacteristicPermissions(int permissions) {
         Logger.i(TAG, "logCharacteristicPermissions...");
@@ -1,15 +1,25 @@
 package com.scn.devicemanagement;
 
 import android.bluetooth.*;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 
 import com.scn.logger.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -30,19 +40,30 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
 
     private static final String TAG = BluetoothDeviceManager.class.getSimpleName();
 
+    private static final int RSSI_UPDATE_INTERVAL_MS = 1000;
+
     private final BluetoothAdapter bluetoothAdapter;
+    private ScanCallback leScanCallback = null;
+    private final OutputScheduler outputScheduler;
+    private final GattLayoutCache gattLayoutCache = new GattLayoutCache();
     private ObservableEmitter<Device> deviceEmitter = null;
     private final Object deviceEmitterLock = new Object();
 
+    // Devices seen in the current scan session by address, guarded by deviceEmitterLock
+    private final Map<String, ScannedDevice> scannedDevices = new HashMap<>();
+    private Set<String> scanAddresses = null;
+
     //
     // Constructor
     //
 
     @Inject
-    public BluetoothDeviceManager(Context context) {
+    public BluetoothDeviceManager(Context context, OutputScheduler outputScheduler) {
         super(context);
         Logger.i(TAG, "constructor...");
 
+        this.outputScheduler = outputScheduler;
+
         if (context.getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
             final BluetoothManager bluetoothManager = (BluetoothManager) context.getSystemService(Context.BLUETOOTH_SERVICE);
             bluetoothAdapter = bluetoothManager != null ? bluetoothManager.getAdapter() : null;
@@ -81,6 +102,14 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
         return bluetoothAdapter;
     }
 
+    OutputScheduler getOutputScheduler() {
+        return outputScheduler;
+    }
+
+    GattLayoutCache getGattLayoutCache() {
+        return gattLayoutCache;
+    }
+
     //
     // SpecificDeviceManager overrides
     //
@@ -88,7 +117,15 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
     @MainThread
     @Override
     public synchronized Observable<Device> startScan() {
-        Logger.i(TAG, "startScan...");
+        return startScan(DeviceManager.ScanMode.LOW_LATENCY, null);
+    }
+
+    /**
+     * @param addresses if not null only the devices with these addresses are reported.
+     */
+    @MainThread
+    synchronized Observable<Device> startScan(@NonNull DeviceManager.ScanMode scanMode, Set<String> addresses) {
+        Logger.i(TAG, "startScan - " + scanMode + (addresses != null ? ", addresses: " + addresses : ""));
 
         if (!isBluetoothLESupported()) {
             return Observable.empty();
@@ -105,8 +142,13 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
 
                 synchronized (deviceEmitterLock) {
                     if (deviceEmitter == null) {
-                        bluetoothAdapter.startLeScan(scanCallback);
                         deviceEmitter = emitter;
+                        scannedDevices.clear();
+                        scanAddresses = addresses;
+                        if (!startLeScan(scanMode)) {
+                            deviceEmitter = null;
+                            emitter.onError(new Exception("Failed to start the bluetooth scan."));
+                        }
                     }
                 }
             });
@@ -125,7 +167,7 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
             }
 
             try {
-                bluetoothAdapter.stopLeScan(scanCallback);
+                stopLeScan();
             }
             finally {
                 deviceEmitter.onComplete();
@@ -144,7 +186,7 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
 
         switch (type) {
             case SBRICK:
-                return new SBrickDevice(context, name, address, BluetoothDeviceManager.this);
+                return new SBrickDevice(context, name, address, deviceSpecificDataJSon, BluetoothDeviceManager.this);
             case BUWIZZ:
                 return new BuWizzDevice(context, name, address, deviceSpecificDataJSon, BluetoothDeviceManager.this);
             case BUWIZZ2:
@@ -159,99 +201,161 @@ final class BluetoothDeviceManager extends SpecificDeviceManager {
     // Private
     //
 
-    private BluetoothAdapter.LeScanCallback scanCallback = (bluetoothDevice, i, scanRecord) -> {
-        Logger.i(TAG, "onLeScan...");
+    private boolean startLeScan(@NonNull DeviceManager.ScanMode scanMode) {
+        Logger.i(TAG, "startLeScan...");
 
-        if (bluetoothDevice == null) {
-            Logger.i(TAG, "  bluetoothDevice is null.");
-            return;
+        // The legacy scan delivers every advertisement in range, filtering is done in the callback
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Logger.i(TAG, "  Legacy scan.");
+            return bluetoothAdapter.startLeScan(legacyScanCallback);
         }
 
-        Logger.i(TAG, "  name: " + bluetoothDevice.getName());
-        Logger.i(TAG, "  address: " + bluetoothDevice.getAddress());
-
-        if (scanRecord == null || scanRecord.length == 0) {
-            Logger.i(TAG, "  No scanrecord.");
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner == null) {
+            Logger.w(TAG, "  No bluetooth LE scanner.");
+            return false;
         }
 
-            Map<String, String> scanRecordMap = processScanRecord(scanRecord);
-            if (!scanRecordMap.containsKey("FF")) {
-                Logger.i(TAG, "  No manufacturer data in scan record.");
-                return;
+        List<ScanFilter> scanFilters = new ArrayList<>();
+        if (scanAddresses != null) {
+            for (String address : scanAddresses) {
+                scanFilters.add(new ScanFilter.Builder().setDeviceAddress(address).build());
             }
+        }
+        else {
+            scanFilters.add(new ScanFilter.Builder().setManufacturerData(AdvertisementParser.MANUFACTURER_ID_SBRICK, new byte[0]).build());
+            scanFilters.add(new ScanFilter.Builder().setManufacturerData(AdvertisementParser.MANUFACTURER_ID_BUWIZZ, new byte[0]).build());
+            scanFilters.add(new ScanFilter.Builder().setManufacturerData(AdvertisementParser.MANUFACTURER_ID_BUWIZZ2, new byte[0]).build());
+        }
 
-            String manufacturerData = scanRecordMap.get("FF");
-            Logger.i(TAG, "  Manufacturer data: " + manufacturerData);
+        ScanSettings scanSettings = new ScanSettings.Builder()
+                .setScanMode(scanMode == DeviceManager.ScanMode.LOW_POWER ? ScanSettings.SCAN_MODE_LOW_POWER : ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .build();
 
-            synchronized (deviceEmitterLock) {
-                if (deviceEmitter != null) {
-                    if (manufacturerData.startsWith("98 01")) {
-                        deviceEmitter.onNext(createDevice(Device.DeviceType.SBRICK, bluetoothDevice.getName(), bluetoothDevice.getAddress(), null));
-                    }
-                    else if (manufacturerData.startsWith("48 4D")) {
-                        deviceEmitter.onNext(createDevice(Device.DeviceType.BUWIZZ, bluetoothDevice.getName(), bluetoothDevice.getAddress(), null));
-                    }
-                    else if (manufacturerData.startsWith("4E 05")) {
-                        deviceEmitter.onNext(createDevice(Device.DeviceType.BUWIZZ2, bluetoothDevice.getName(), bluetoothDevice.getAddress(), null));
-                    }
-                    else {
-                        Logger.i(TAG, "  Unknown bluetooth device.");
-                    }
-                }
-            }
-    };
+        if (leScanCallback == null) {
+            leScanCallback = createLeScanCallback();
+        }
 
-    private Map<String, String> processScanRecord(byte scanRecord[]) {
-        Logger.i(TAG, "processScanRecord...");
+        try {
+            scanner.startScan(scanFilters, scanSettings, leScanCallback);
+            return true;
+        }
+        catch (Exception e) {
+            Logger.e(TAG, "  Failed to start the scan.", e);
+            return false;
+        }
+    }
+
+    private void stopLeScan() {
+        Logger.i(TAG, "stopLeScan...");
 
-        Map<String, String> scanRecordMap = new HashMap<>();
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            bluetoothAdapter.stopLeScan(legacyScanCallback);
+            return;
+        }
 
-        if (scanRecord == null || scanRecord.length == 0) {
-            Logger.i(TAG, "  empty scan record.");
-            return scanRecordMap;
+        // The scanner is gone if the bluetooth has been turned off in the meantime
+        BluetoothLeScanner scanner = bluetoothAdapter.getBluetoothLeScanner();
+        if (scanner != null && leScanCallback != null) {
+            scanner.stopScan(leScanCallback);
         }
+    }
 
-        boolean isLength = true;
-        int length = 0;
-        String type = "";
-        byte index = 0;
-        StringBuilder sb = new StringBuilder();
-
-        for (byte b : scanRecord) {
-            if (isLength) {
-                length = b;
-                Logger.i(TAG, "  length: " + length);
-                if (length == 0) {
-                    return scanRecordMap;
+    private ScanCallback createLeScanCallback() {
+        return new ScanCallback() {
+            @Override
+            public void onScanResult(int callbackType, ScanResult result) {
+                android.bluetooth.BluetoothDevice bluetoothDevice = result.getDevice();
+                if (bluetoothDevice == null || result.getScanRecord() == null) {
+                    return;
                 }
 
-                isLength = false;
-                index = 0;
-            } else {
-                if (index == 0) {
-                    type = String.format("%02X", b);
-                    Logger.i(TAG, "  type: " + type);
-
-                    sb.setLength(0);
-                    index++;
-                } else {
-                    sb.append(String.format("%02X", b));
-
-                    if (index < length - 1) {
-                        sb.append(" ");
-                        index++;
-                    }
-                    else {
-                        String data = sb.toString();
-                        Logger.i(TAG, "  data: " + data);
+                Device.DeviceType type = AdvertisementParser.getDeviceType(result.getScanRecord().getBytes());
+                if (type != null) {
+                    onDeviceFound(type, bluetoothDevice, result.getRssi());
+                }
+            }
 
-                        scanRecordMap.put(type, data);
-                        isLength = true;
+            @Override
+            public void onBatchScanResults(List<ScanResult> results) {
+                for (ScanResult result : results) {
+                    onScanResult(ScanSettings.CALLBACK_TYPE_ALL_MATCHES, result);
+                }
+            }
+
+            @Override
+            public void onScanFailed(int errorCode) {
+                Logger.w(TAG, "onScanFailed - error code: " + errorCode);
+
+                synchronized (deviceEmitterLock) {
+                    if (deviceEmitter != null) {
+                        deviceEmitter.onError(new Exception("Bluetooth scan failed, error code: " + errorCode));
+                        deviceEmitter = null;
                     }
                 }
             }
+        };
+    }
+
+    private void onDeviceFound(@NonNull Device.DeviceType type, @NonNull android.bluetooth.BluetoothDevice bluetoothDevice, int rssi) {
+        String address = bluetoothDevice.getAddress();
+        long now = SystemClock.uptimeMillis();
+
+        synchronized (deviceEmitterLock) {
+            if (deviceEmitter == null || (scanAddresses != null && !scanAddresses.contains(address))) {
+                return;
+            }
+
+            // Repeated advertisements only update the RSSI of the already emitted device
+            ScannedDevice scannedDevice = scannedDevices.get(address);
+            if (scannedDevice != null && scannedDevice.device.getType() == type) {
+                if (now - scannedDevice.lastEmitTime < RSSI_UPDATE_INTERVAL_MS || scannedDevice.device.getRssi() == rssi) {
+                    return;
+                }
+
+                scannedDevice.device.setRssi(rssi);
+                scannedDevice.lastEmitTime = now;
+                deviceEmitter.onNext(scannedDevice.device);
+                return;
+            }
+
+            Logger.i(TAG, "onDeviceFound - " + type);
+            Logger.i(TAG, "  name: " + bluetoothDevice.getName());
+            Logger.i(TAG, "  address: " + address);
+
+            Device device = createDevice(type, bluetoothDevice.getName(), address, null);
+            if (device == null) {
+                return;
+            }
+
+            device.setRssi(rssi);
+            scannedDevices.put(address, new ScannedDevice(device, now));
+            deviceEmitter.onNext(device);
+        }
+    }
+
+    private BluetoothAdapter.LeScanCallback legacyScanCallback = (bluetoothDevice, rssi, scanRecord) -> {
+        if (bluetoothDevice == null) {
+            return;
         }
 
-        return scanRecordMap;
+        Device.DeviceType type = AdvertisementParser.getDeviceType(scanRecord);
+        if (type != null) {
+            onDeviceFound(type, bluetoothDevice, rssi);
+        }
+    };
+
+    //
+    // ScannedDevice
+    //
+
+    private static final class ScannedDevice {
+        final Device device;
+        long lastEmitTime;
+
+        ScannedDevice(@NonNull Device device, long lastEmitTime) {
+            this.device = device;
+            this.lastEmitTime = lastEmitTime;
+        }
     }
 }
@@ -8,6 +8,8 @@ import android.support.annotation.NonNull;
 import com.google.gson.Gson;
 import com.scn.logger.Logger;
 
+import java.util.UUID;
+
 import static com.scn.devicemanagement.BuWizz2Device.BuWizz2OutputLevel.NORMAL;
 
 /**
@@ -23,23 +25,27 @@ public final class BuWizz2Device  extends BluetoothDevice {
     private static final String TAG = BuWizz2Device.class.getSimpleName();
 
     // Service UUIDs
-    private static final String SERVICE_UUID_REMOTE_CONTROL = "4e050000-74fb-4481-88b3-9919b1676e93";
+    private static final UUID SERVICE_UUID_REMOTE_CONTROL = UUID.fromString("4e050000-74fb-4481-88b3-9919b1676e93");
 
     // Characteristic UUIDs
-    private static final String CHARACTERISTIC_UUID_REMOTE_CONTROL = "000092d1-0000-1000-8000-00805f9b34fb";
+    private static final UUID CHARACTERISTIC_UUID_REMOTE_CONTROL = UUID.fromString("000092d1-0000-1000-8000-00805f9b34fb");
+
+    // Status report notification: message type, status flags, battery voltage, motor currents, temperature
+    private static final byte MESSAGE_STATUS_REPORT = 0x00;
+    private static final int STATUS_REPORT_MIN_LENGTH = 8;
+    private static final int STATUS_REPORT_VOLTAGE_OFFSET = 2;
+    private static final int STATUS_REPORT_CURRENTS_OFFSET = 3;
+    private static final int STATUS_REPORT_TEMPERATURE_OFFSET = 7;
+    private static final float BATTERY_VOLTAGE_BASE = 3.0f;
+    private static final float BATTERY_VOLTAGE_UNIT = 0.01f;
+    private static final float MOTOR_CURRENT_UNIT = 0.015f;
 
     private BluetoothGattCharacteristic remoteControlCharacteristic;
 
-    private Thread outputThread = null;
-    private final Object outputThreadLock = new Object();
-
-    private BuWizz2Data buWizz2Data = null;
-    private boolean buWizz2DataChanged = false;
-
-    private final int[] outputValues = new int[4];
+    private volatile BuWizz2Data buWizz2Data = null;
+    private volatile boolean buWizz2DataChanged = false;
 
-    private static final int MaxSendAttempts = 4;
-    private int sendAttemptsLeft = 0;
+    private final BuWizz2FrameEncoder frameEncoder = new BuWizz2FrameEncoder();
 
     //
     // Constructor
@@ -70,35 +76,39 @@ public final class BuWizz2Device  extends BluetoothDevice {
     @Override
     public void setDeviceSpecificDataJSon(String deviceSpecificDataJSon) {
         Logger.i(TAG, "setDeviceSpecificDataJSon - " + deviceSpecificDataJSon);
-        buWizz2Data = null;
-        if (deviceSpecificDataJSon != null) buWizz2Data = new Gson().fromJson(deviceSpecificDataJSon, BuWizz2Data.class);
-        if (buWizz2Data == null) buWizz2Data = new BuWizz2Data(NORMAL);
+        // Published in one step, the output thread reads it
+        BuWizz2Data data = null;
+        if (deviceSpecificDataJSon != null) data = new Gson().fromJson(deviceSpecificDataJSon, BuWizz2Data.class);
+        if (data == null) data = new BuWizz2Data(NORMAL);
+        if (data.keepAlivePolicy == null) data.keepAlivePolicy = KeepAlivePolicy.getDefault(getType());
+        buWizz2Data = data;
         buWizz2DataChanged = true;
+        wakeUpOutput();
     }
 
     @Override
-    public int getNumberOfChannels() {
-        return 4;
+    public KeepAlivePolicy getKeepAlivePolicy() {
+        return buWizz2Data.keepAlivePolicy;
     }
 
     @Override
-    public int getOutput(int channel) {
-        checkChannel(channel);
-        return outputValues[channel];
+    public boolean isTelemetrySupported() {
+        return true;
     }
 
-    @Override
-    public void setOutput(int channel, int value) {
-        Logger.i(TAG, "setOutput - channel: " + channel + ", value: " + value);
-        checkChannel(channel);
-        value = limitOutputValue(value);
+    //
+    // OutputScheduler.OutputSender overrides
+    //
 
-        if (outputValues[channel] == value) {
-            return;
+    @Override
+    public boolean onOutputTick() {
+        // Queued ahead of the drive frame of the same tick
+        if (buWizz2DataChanged) {
+            buWizz2DataChanged = false;
+            sendOutputLevel(buWizz2Data.outputLevel);
         }
 
-        outputValues[channel] = value;
-        sendAttemptsLeft = MaxSendAttempts;
+        return super.onOutputTick();
     }
 
     //
@@ -115,7 +125,11 @@ public final class BuWizz2Device  extends BluetoothDevice {
             return false;
         }
 
-        startOutputThread();
+        // The status reports arrive as notifications of the same characteristic
+        enableNotifications(gatt, remoteControlCharacteristic);
+
+        buWizz2DataChanged = true;
+        resetOutputs();
         return true;
     }
 
@@ -131,115 +145,49 @@ public final class BuWizz2Device  extends BluetoothDevice {
         return true;
     }
 
+    @Override
+    protected void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+        byte[] value = characteristic.getValue();
+        if (value == null || value.length < STATUS_REPORT_MIN_LENGTH || value[0] != MESSAGE_STATUS_REPORT) {
+            return;
+        }
+
+        TelemetryRecorder telemetryRecorder = getTelemetryRecorder();
+        telemetryRecorder.setBatteryVoltage(BATTERY_VOLTAGE_BASE + (value[STATUS_REPORT_VOLTAGE_OFFSET] & 0xff) * BATTERY_VOLTAGE_UNIT);
+        for (int channel = 0; channel < TelemetryRecorder.MAX_MOTOR_CHANNELS; channel++) {
+            telemetryRecorder.setMotorCurrent(channel, (value[STATUS_REPORT_CURRENTS_OFFSET + channel] & 0xff) * MOTOR_CURRENT_UNIT);
+        }
+        telemetryRecorder.setTemperature(value[STATUS_REPORT_TEMPERATURE_OFFSET] & 0xff);
+        telemetryRecorder.commit();
+    }
+
+    @Override
+    protected FrameEncoder getFrameEncoder() {
+        return frameEncoder;
+    }
+
     @Override
     protected void disconnectInternal() {
         Logger.i(TAG, "disconnectInternal - device: " + BuWizz2Device.this);
-        stopOutputThread();
     }
 
     //
     // Private methods
     //
 
-    private void startOutputThread() {
-        Logger.i(TAG, "startOutputThread - device: " + this);
-
-        synchronized (outputThreadLock) {
-            stopOutputThread();
-
-            outputValues[0] = 0;
-            outputValues[1] = 0;
-            outputValues[2] = 0;
-            outputValues[3] = 0;
-            sendAttemptsLeft = MaxSendAttempts;
-
-            buWizz2DataChanged = true;
-
-            outputThread = new Thread(() -> {
-                Logger.i(TAG, "Entering the output thread - device: " + BuWizz2Device.this);
-
-                while (!Thread.currentThread().isInterrupted()) {
-                    if (buWizz2DataChanged) {
-                        sendOutputLevel(buWizz2Data.outputLevel);
-                        buWizz2DataChanged = false;
-                    }
-                    else if (sendAttemptsLeft > 0) {
-                        int value0 = outputValues[0];
-                        int value1 = outputValues[1];
-                        int value2 = outputValues[2];
-                        int value3 = outputValues[3];
-
-                        if (sendOutputValues(value0, value1, value2, value3)) {
-                            if (value0 != 0 || value1 != 0 || value2 != 0 || value3 != 0) {
-                                sendAttemptsLeft = MaxSendAttempts;
-                            }
-                            else {
-                                Logger.i(TAG, "All outputs zero, send attempts left: " + sendAttemptsLeft);
-                                sendAttemptsLeft--;
-                            }
-                        }
-                        else {
-                            sendAttemptsLeft = MaxSendAttempts;
-                        }
-                    }
-
-                    try {
-                        Thread.sleep(60);
-                    }
-                    catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-
-                Logger.i(TAG, "Exiting from output thread - device: " + BuWizz2Device.this);
-            });
-            outputThread.start();
-        }
-    }
-
-    private void stopOutputThread() {
-        Logger.i(TAG, "stopOtuputThread...");
-
-        synchronized (outputThreadLock) {
-            if (outputThread == null) {
-                Logger.i(TAG, "  Output thread is already null.");
-                return;
-            }
-
-            if (!outputThread.isInterrupted()) {
-                Logger.i(TAG, "  Interrupting the output thread...");
-                outputThread.interrupt();
-                try { outputThread.join(); } catch (InterruptedException ignored) {}
-            }
-
-            outputThread = null;
-        }
-    }
-
-    private boolean sendOutputValues(int v0, int v1, int v2, int v3) {
+    @Override
+    protected boolean sendOutputValues(int v0, int v1, int v2, int v3) {
         //Logger.i(TAG, "sendOutputValues...");
 
         try {
-            byte[] buffer = new byte[] {
-                    (byte)0x10,
-                    (byte)(v0 / 2),
-                    (byte)(v1 / 2),
-                    (byte)(v2 / 2),
-                    (byte)(v3 / 2),
-                    (byte)0x00
-            };
+            frameEncoder.encode(v0, v1, v2, v3);
 
             remoteControlCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            if (remoteControlCharacteristic.setValue(buffer)) {
-                if (bluetoothGatt.writeCharacteristic(remoteControlCharacteristic)) {
-                    return true;
-                }
-                else {
-                    Logger.w(TAG, "  Failed to write remote control characteristic.");
-                }
+            if (writeDriveFrame(remoteControlCharacteristic, frameEncoder.getBuffer())) {
+                return true;
             }
             else {
-                Logger.w(TAG, "  Failed to set value on remote control characteristic.");
+                Logger.w(TAG, "  Failed to write remote control characteristic.");
             }
         }
         catch (Exception e) {
@@ -252,27 +200,14 @@ public final class BuWizz2Device  extends BluetoothDevice {
     private boolean sendOutputLevel(BuWizz2OutputLevel outputLevel) {
         Logger.i(TAG, "sendOutputLevel - " + outputLevel);
         try {
-            byte outputLevelValue = 2;
-            switch (outputLevel) {
-                case LOW: outputLevelValue = 1; break;
-                case NORMAL: outputLevelValue = 2; break;
-                case HIGH: outputLevelValue = 3; break;
-                case LUDICROUS: outputLevelValue = 4; break;
-            }
-
-            byte[] buffer = new byte[] { (byte)0x11, outputLevelValue };
+            byte[] buffer = frameEncoder.encodeOutputLevel(outputLevel);
 
             remoteControlCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
-            if (remoteControlCharacteristic.setValue(buffer)) {
-                if (bluetoothGatt.writeCharacteristic(remoteControlCharacteristic)) {
-                    return true;
-                }
-                else {
-                    Logger.w(TAG, "  Failed to write remote control characteristic.");
-                }
+            if (writeConfig(remoteControlCharacteristic, buffer)) {
+                return true;
             }
             else {
-                Logger.w(TAG, "  Failed to set value on remote control characteristic.");
+                Logger.w(TAG, "  Failed to write remote control characteristic.");
             }
         }
         catch (Exception e) {
@@ -295,6 +230,7 @@ public final class BuWizz2Device  extends BluetoothDevice {
 
     public static class BuWizz2Data {
         public BuWizz2OutputLevel outputLevel;
+        public KeepAlivePolicy keepAlivePolicy;
         public BuWizz2Data(@NonNull BuWizz2OutputLevel outputLevel) {
             this.outputLevel = outputLevel;
         }
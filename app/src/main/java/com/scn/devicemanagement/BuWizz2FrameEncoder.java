@@ -0,0 +1,51 @@
+package com.scn.devicemanagement;
+
+final class BuWizz2FrameEncoder implements FrameEncoder {
+
+    //
+    // Private members
+    //
+
+    private final byte[] buffer = new byte[] { 0x10, 0, 0, 0, 0, 0 };
+    private final byte[] outputLevelBuffer = new byte[] { 0x11, 2 };
+
+    //
+    // API
+    //
+
+    byte[] encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel outputLevel) {
+        byte outputLevelValue = 2;
+        switch (outputLevel) {
+            case LOW: outputLevelValue = 1; break;
+            case NORMAL: outputLevelValue = 2; break;
+            case HIGH: outputLevelValue = 3; break;
+            case LUDICROUS: outputLevelValue = 4; break;
+        }
+
+        outputLevelBuffer[1] = outputLevelValue;
+        return outputLevelBuffer;
+    }
+
+    //
+    // FrameEncoder overrides
+    //
+
+    @Override
+    public int encode(int v0, int v1, int v2, int v3) {
+        buffer[1] = (byte)(v0 / 2);
+        buffer[2] = (byte)(v1 / 2);
+        buffer[3] = (byte)(v2 / 2);
+        buffer[4] = (byte)(v3 / 2);
+        return buffer.length;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int quantize(int value) {
+        return (byte)(value / 2);
+    }
+}
@@ -0,0 +1,56 @@
+package com.scn.devicemanagement;
+
+final class BuWizzFrameEncoder implements FrameEncoder {
+
+    //
+    // Private members
+    //
+
+    private final byte[] buffer = new byte[5];
+
+    private volatile byte outputLevelValue = 0x20;
+
+    //
+    // API
+    //
+
+    void setOutputLevel(BuWizzDevice.BuWizzOutputLevel outputLevel) {
+        switch (outputLevel) {
+            case LOW: outputLevelValue = 0x00; break;
+            case NORMAL: outputLevelValue = 0x20; break;
+            case HIGH: outputLevelValue = 0x40; break;
+        }
+    }
+
+    //
+    // FrameEncoder overrides
+    //
+
+    @Override
+    public int encode(int v0, int v1, int v2, int v3) {
+        buffer[0] = (byte)(encodeValue(v0) | 0x80);
+        buffer[1] = encodeValue(v1);
+        buffer[2] = encodeValue(v2);
+        buffer[3] = encodeValue(v3);
+        buffer[4] = outputLevelValue;
+        return buffer.length;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int quantize(int value) {
+        return encodeValue(value) & 0xff;
+    }
+
+    //
+    // Private methods
+    //
+
+    private static byte encodeValue(int value) {
+        return (byte)((Math.abs(value) >> 2) | (value < 0 ? 0x40 : 0));
+    }
+}
@@ -0,0 +1,62 @@
+package com.scn.devicemanagement;
+
+/**
+ * Estimates the connection interval of a BLE link from the round trip times of the acknowledged
+ * characteristic writes.
+ *
+ * A write request goes out in one connection event and its response comes back in a later one,
+ * so the shortest round trip of the recent writes is close to a single connection interval.
+ */
+
+final class ConnectionIntervalEstimator {
+
+    //
+    // Constants
+    //
+
+    private static final int WINDOW_SIZE = 16;
+    private static final int MIN_SAMPLES = 4;
+
+    //
+    // Private members
+    //
+
+    private final int roundTripTimes[] = new int[WINDOW_SIZE];
+    private int sampleCount = 0;
+    private int nextSampleIndex = 0;
+
+    //
+    // API
+    //
+
+    synchronized void addRoundTripTime(int roundTripTimeMs) {
+        if (roundTripTimeMs < 0) {
+            return;
+        }
+
+        roundTripTimes[nextSampleIndex] = roundTripTimeMs;
+        nextSampleIndex = (nextSampleIndex + 1) % WINDOW_SIZE;
+        if (sampleCount < WINDOW_SIZE) sampleCount++;
+    }
+
+    /**
+     * @return the estimated connection interval, -1 if there have not been enough writes yet.
+     */
+    synchronized int getEstimateMs() {
+        if (sampleCount < MIN_SAMPLES) {
+            return -1;
+        }
+
+        int minRoundTripTime = Integer.MAX_VALUE;
+        for (int i = 0; i < sampleCount; i++) {
+            minRoundTripTime = Math.min(minRoundTripTime, roundTripTimes[i]);
+        }
+
+        return Math.max(1, minRoundTripTime);
+    }
+
+    synchronized void reset() {
+        sampleCount = 0;
+        nextSampleIndex = 0;
+    }
+}
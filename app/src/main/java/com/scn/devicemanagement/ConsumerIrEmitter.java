@@ -0,0 +1,86 @@
+package com.scn.devicemanagement;
+
+import android.content.Context;
+import android.hardware.ConsumerIrManager;
+import android.support.annotation.NonNull;
+
+import com.scn.logger.Logger;
+
+/**
+ * Infra red emitter built into the phone.
+ */
+
+final class ConsumerIrEmitter implements InfraRedEmitter {
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = ConsumerIrEmitter.class.getSimpleName();
+
+    private final ConsumerIrManager irManager;
+
+    //
+    // Constructor
+    //
+
+    ConsumerIrEmitter(@NonNull Context context) {
+        Logger.i(TAG, "constructor...");
+
+        ConsumerIrManager irManager = null;
+        try {
+            irManager = (ConsumerIrManager)context.getSystemService(Context.CONSUMER_IR_SERVICE);
+            if (irManager == null || !irManager.hasIrEmitter()) {
+                Logger.i(TAG, "  No IR emitter.");
+                irManager = null;
+            }
+        }
+        catch (Exception ex) {
+            Logger.e(TAG, "Could not retrieve IR manager.");
+        }
+        finally {
+            this.irManager = irManager;
+        }
+    }
+
+    //
+    // InfraRedEmitter overrides
+    //
+
+    @Override
+    public boolean isSupported(int carrierFrequency) {
+        if (irManager == null) {
+            return false;
+        }
+
+        Logger.i(TAG, "  Supported frequency ranges:");
+        boolean isSupported = false;
+
+        ConsumerIrManager.CarrierFrequencyRange frequencyRanges[] = irManager.getCarrierFrequencies();
+        for (ConsumerIrManager.CarrierFrequencyRange frequencyRange : frequencyRanges) {
+            int minFreq = frequencyRange.getMinFrequency();
+            int maxFreq = frequencyRange.getMaxFrequency();
+            Logger.i(TAG, "    Range: " + minFreq + " - " + maxFreq);
+            if (minFreq <= carrierFrequency && carrierFrequency <= maxFreq) isSupported = true;
+        }
+
+        if (!isSupported) {
+            Logger.i(TAG, "  IR frequency is not supported.");
+        }
+
+        return isSupported;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void transmit(int carrierFrequency, @NonNull int[] pattern) {
+        irManager.transmit(carrierFrequency, pattern);
+    }
+}
@@ -40,10 +40,15 @@ public abstract class Device implements Comparable<Device> {
 
     private static final String TAG = Device.class.getSimpleName();
 
+    public static final int RSSI_UNKNOWN = Integer.MIN_VALUE;
+
     protected String name;
     protected String address;
+    private volatile int rssi = RSSI_UNKNOWN;
+    private volatile int linkRssi = RSSI_UNKNOWN;
 
     protected MutableLiveData<StateChange<Device.State>> stateChangeLiveData = new MutableLiveData<>();
+    protected MutableLiveData<DeviceTelemetry> telemetryLiveData = new MutableLiveData<>();
 
     //
     // Constructor
@@ -89,9 +94,23 @@ public abstract class Device implements Comparable<Device> {
     void setName(String value) { name = value; }
     public String getAddress() { return address; }
 
+    // Signal strength of the last advertisement seen while scanning
+    public int getRssi() { return rssi; }
+    void setRssi(int value) { rssi = value; }
+
+    // Signal strength last read from the connection while connected
+    public int getLinkRssi() { return linkRssi; }
+    void setLinkRssi(int value) { linkRssi = value; }
+
     public String getDeviceSpecificDataJSon() { return null; }
     public void setDeviceSpecificDataJSon(String deviceSpecificDataJSon) {}
 
+    public KeepAlivePolicy getKeepAlivePolicy() { return null; }
+
+    public boolean isTelemetrySupported() { return false; }
+
+    public LiveData<DeviceTelemetry> getTelemetryLiveData() { return telemetryLiveData; }
+
     public LiveData<StateChange<Device.State>> getStateChangeLiveData() { return stateChangeLiveData; }
 
     public abstract int getNumberOfChannels();
@@ -122,6 +141,13 @@ public abstract class Device implements Comparable<Device> {
         }
     }
 
+    /**
+     * Publishes a state change from a thread keeping track of the state itself.
+     */
+    protected void postState(Device.State previousState, Device.State newState, boolean isError, Object data) {
+        stateChangeLiveData.postValue(new StateChange(previousState, newState, isError, data));
+    }
+
     protected void checkChannel(int channel) {
         if (channel < 0 || getNumberOfChannels() <= channel) {
             throw new IllegalArgumentException("Invalid channel " + channel);
@@ -0,0 +1,257 @@
+package com.scn.devicemanagement;
+
+import android.arch.lifecycle.Observer;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.MainThread;
+import android.support.annotation.NonNull;
+
+import com.scn.common.StateChange;
+import com.scn.logger.Logger;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Connects bluetooth devices a few at a time.
+ *
+ * Many phones fail with GATT errors when several connections are started at once, so only a
+ * limited number of direct connection attempts run in parallel, the rest wait in a queue. A device
+ * is tried with direct connect first (fast), then falls back to auto connect. Failed attempts are
+ * retried with exponential backoff.
+ *
+ * A connected device stays watched until it is disconnected through the orchestrator, a
+ * connection lost on the way is queued again like a new one.
+ */
+
+@Singleton
+final class DeviceConnectionOrchestrator {
+
+    //
+    // Constants
+    //
+
+    private static final String TAG = DeviceConnectionOrchestrator.class.getSimpleName();
+
+    private static final int DEFAULT_MAX_CONCURRENT_CONNECTIONS = 2;
+    private static final int DIRECT_CONNECT_ATTEMPTS = 2;
+    private static final int DIRECT_CONNECT_TIMEOUT_MS = 10000;
+    private static final int INITIAL_BACKOFF_MS = 250;
+    private static final int MAX_BACKOFF_MS = 8000;
+
+    //
+    // Private members
+    //
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Map<Device, Connection> connections = new HashMap<>();
+    private final ArrayDeque<Connection> waitingConnections = new ArrayDeque<>();
+    private final Map<String, Long> connectTimes = new HashMap<>();
+
+    private int maxConcurrentConnections = DEFAULT_MAX_CONCURRENT_CONNECTIONS;
+    private int numDirectConnecting = 0;
+
+    //
+    // Constructor
+    //
+
+    @Inject
+    DeviceConnectionOrchestrator() {
+        Logger.i(TAG, "constructor...");
+    }
+
+    //
+    // API
+    //
+
+    @MainThread
+    void setMaxConcurrentConnections(int maxConcurrentConnections) {
+        Logger.i(TAG, "setMaxConcurrentConnections - " + maxConcurrentConnections);
+        this.maxConcurrentConnections = Math.max(1, maxConcurrentConnections);
+        startWaitingConnections();
+    }
+
+    @MainThread
+    void connect(@NonNull Device device) {
+        Logger.i(TAG, "connect - " + device);
+
+        if (!(device instanceof BluetoothDevice)) {
+            device.connect();
+            return;
+        }
+
+        if (connections.containsKey(device)) {
+            Logger.i(TAG, "  Already connecting or connected.");
+            return;
+        }
+
+        Connection connection = new Connection((BluetoothDevice)device);
+        connections.put(device, connection);
+        device.getStateChangeLiveData().observeForever(connection.stateChangeObserver);
+
+        waitingConnections.addLast(connection);
+        startWaitingConnections();
+    }
+
+    @MainThread
+    void disconnect(@NonNull Device device) {
+        Logger.i(TAG, "disconnect - " + device);
+
+        Connection connection = connections.remove(device);
+        if (connection != null) {
+            device.getStateChangeLiveData().removeObserver(connection.stateChangeObserver);
+            waitingConnections.remove(connection);
+            handler.removeCallbacks(connection.retryRunnable);
+            finishAttempt(connection);
+        }
+
+        device.disconnect();
+        startWaitingConnections();
+    }
+
+    /**
+     * @return the time the successful attempt of the last connection took, without the wait in
+     * the queue and the backoff of the failed attempts, -1 if it has not been connected yet.
+     */
+    @MainThread
+    long getConnectTimeMs(@NonNull Device device) {
+        Long connectTime = connectTimes.get(device.getId());
+        return connectTime != null ? connectTime : -1;
+    }
+
+    //
+    // Private methods
+    //
+
+    private void startWaitingConnections() {
+        while (numDirectConnecting < maxConcurrentConnections && !waitingConnections.isEmpty()) {
+            startAttempt(waitingConnections.removeFirst());
+        }
+    }
+
+    private void startAttempt(@NonNull Connection connection) {
+        boolean isDirect = connection.attempts < DIRECT_CONNECT_ATTEMPTS;
+        connection.attempts++;
+        Logger.i(TAG, "startAttempt - " + connection.device + ", attempt: " + connection.attempts + (isDirect ? ", direct" : ", auto connect"));
+
+        // Auto connect waits in the background, it does not take a slot of the direct connects
+        connection.isConnecting = true;
+        connection.isDirect = isDirect;
+        connection.attemptStartTime = SystemClock.uptimeMillis();
+        if (isDirect) {
+            numDirectConnecting++;
+        }
+
+        if (!connection.device.connect(!isDirect)) {
+            onAttemptFailed(connection);
+            return;
+        }
+
+        if (isDirect) {
+            handler.postDelayed(connection.timeoutRunnable, DIRECT_CONNECT_TIMEOUT_MS);
+        }
+    }
+
+    private void finishAttempt(@NonNull Connection connection) {
+        if (!connection.isConnecting) {
+            return;
+        }
+
+        connection.isConnecting = false;
+        if (connection.isDirect) {
+            numDirectConnecting--;
+        }
+        handler.removeCallbacks(connection.timeoutRunnable);
+    }
+
+    private void onStateChanged(@NonNull Connection connection, StateChange<Device.State> stateChange) {
+        if (stateChange == null) {
+            return;
+        }
+
+        Device.State currentState = stateChange.getCurrentState();
+        if (connection.isConnecting) {
+            if (currentState == Device.State.CONNECTED) {
+                onConnected(connection);
+            }
+            else if (currentState == Device.State.DISCONNECTED && (stateChange.isError() || stateChange.getPreviousState() != Device.State.DISCONNECTED)) {
+                onAttemptFailed(connection);
+            }
+        }
+        else if (connection.isConnected && currentState == Device.State.DISCONNECTED) {
+            onConnectionLost(connection);
+        }
+    }
+
+    private void onConnected(@NonNull Connection connection) {
+        long connectTime = SystemClock.uptimeMillis() - connection.attemptStartTime;
+        Logger.i(TAG, "onConnected - " + connection.device + ", connect time: " + connectTime + " ms, attempts: " + connection.attempts);
+
+        finishAttempt(connection);
+        connection.isConnected = true;
+        connectTimes.put(connection.device.getId(), connectTime);
+
+        startWaitingConnections();
+    }
+
+    private void onConnectionLost(@NonNull Connection connection) {
+        Logger.w(TAG, "onConnectionLost - " + connection.device + ", reconnecting in " + INITIAL_BACKOFF_MS + " ms");
+
+        // The reconnect starts over with direct connects
+        connection.isConnected = false;
+        connection.attempts = 0;
+
+        // Releases the GATT of the lost connection
+        connection.device.disconnect();
+
+        handler.postDelayed(connection.retryRunnable, INITIAL_BACKOFF_MS);
+    }
+
+    private void onAttemptFailed(@NonNull Connection connection) {
+        int backoffMs = Math.min(MAX_BACKOFF_MS, INITIAL_BACKOFF_MS << Math.min(16, connection.attempts - 1));
+        Logger.w(TAG, "onAttemptFailed - " + connection.device + ", retrying in " + backoffMs + " ms");
+
+        finishAttempt(connection);
+
+        // Releases the GATT of the failed attempt
+        connection.device.disconnect();
+
+        handler.postDelayed(connection.retryRunnable, backoffMs);
+        startWaitingConnections();
+    }
+
+    //
+    // Connection
+    //
+
+    private final class Connection {
+        final BluetoothDevice device;
+        long attemptStartTime = 0;
+        int attempts = 0;
+        boolean isConnecting = false;
+        boolean isDirect = false;
+        boolean isConnected = false;
+
+        final Observer<StateChange<Device.State>> stateChangeObserver = stateChange -> onStateChanged(this, stateChange);
+
+        final Runnable timeoutRunnable = () -> {
+            Logger.w(TAG, "Direct connect timed out.");
+            onAttemptFailed(this);
+        };
+
+        final Runnable retryRunnable = () -> {
+            waitingConnections.addLast(this);
+            startWaitingConnections();
+        };
+
+        Connection(@NonNull BluetoothDevice device) {
+            this.device = device;
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.scn.devicemanagement;
 
 import android.content.Context;
 
+import com.scn.app.AppPreferences;
+
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import dagger.Module;
@@ -16,14 +19,32 @@ public class DeviceManagementModule {
 
     @Provides
     @Singleton
-    BluetoothDeviceManager provideBluetoothDeviceManager(Context context) {
-        return new BluetoothDeviceManager(context);
+    OutputScheduler provideOutputScheduler() {
+        return new OutputScheduler();
     }
 
     @Provides
     @Singleton
-    InfraRedDeviceManager provideInfraredDeviceManager(Context context) {
-        return new InfraRedDeviceManager(context);
+    BluetoothDeviceManager provideBluetoothDeviceManager(Context context, OutputScheduler outputScheduler) {
+        return new BluetoothDeviceManager(context, outputScheduler);
+    }
+
+    // Not scoped, every infra red session gets the emitter of the current preference
+    @Provides
+    InfraRedEmitter provideInfraRedEmitter(Context context, AppPreferences appPreferences) {
+        switch (appPreferences.getInfraRedDeviceType()) {
+            case AUDIO_OUTPUT:
+                return new AudioIrEmitter();
+
+            default:
+                return new ConsumerIrEmitter(context);
+        }
+    }
+
+    @Provides
+    @Singleton
+    InfraRedDeviceManager provideInfraredDeviceManager(Context context, OutputScheduler outputScheduler, Provider<InfraRedEmitter> irEmitterProvider) {
+        return new InfraRedDeviceManager(context, outputScheduler, irEmitterProvider);
     }
 
     @Provides
@@ -32,11 +53,18 @@ public class DeviceManagementModule {
         return new DeviceRepository(context);
     }
 
+    @Provides
+    @Singleton
+    DeviceConnectionOrchestrator provideDeviceConnectionOrchestrator() {
+        return new DeviceConnectionOrchestrator();
+    }
+
     @Provides
     @Singleton
     DeviceManager provideDeviceManager(DeviceRepository deviceRepository,
                                        BluetoothDeviceManager bluetoothDeviceManager,
-                                       InfraRedDeviceManager infraRedDeviceManager) {
-        return new DeviceManager(deviceRepository, bluetoothDeviceManager, infraRedDeviceManager);
+                                       InfraRedDeviceManager infraRedDeviceManager,
+                                       DeviceConnectionOrchestrator connectionOrchestrator) {
+        return new DeviceManager(deviceRepository, bluetoothDeviceManager, infraRedDeviceManager, connectionOrchestrator);
     }
  }
@@ -10,7 +10,10 @@ import com.scn.logger.Logger;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
@@ -45,6 +48,13 @@ public final class DeviceManager implements DeviceFactory {
         SCANNING
     }
 
+    public enum ScanMode {
+        // For the device list where the user is waiting for the results
+        LOW_LATENCY,
+        // For scans running in the background
+        LOW_POWER
+    }
+
     //
     // Private members
     //
@@ -52,6 +62,7 @@ public final class DeviceManager implements DeviceFactory {
     private final DeviceRepository deviceRepository;
     private final BluetoothDeviceManager bluetoothDeviceManager;
     private final InfraRedDeviceManager infraRedDeviceManager;
+    private final DeviceConnectionOrchestrator connectionOrchestrator;
 
     private final MutableLiveData<StateChange<DeviceManager.State>> stateChangeLiveData = new MutableLiveData<>();
 
@@ -69,12 +80,14 @@ public final class DeviceManager implements DeviceFactory {
     @Inject
     public DeviceManager(@NonNull DeviceRepository deviceRepository,
                          @NonNull BluetoothDeviceManager bluetoothDeviceManager,
-                         @NonNull InfraRedDeviceManager infraRedDeviceManager) {
+                         @NonNull InfraRedDeviceManager infraRedDeviceManager,
+                         @NonNull DeviceConnectionOrchestrator connectionOrchestrator) {
         Logger.i(TAG, "constructor...");
 
         this.deviceRepository = deviceRepository;
         this.bluetoothDeviceManager = bluetoothDeviceManager;
         this.infraRedDeviceManager = infraRedDeviceManager;
+        this.connectionOrchestrator = connectionOrchestrator;
 
         stateChangeLiveData.setValue(new StateChange(State.OK, State.OK, false));
     }
@@ -167,67 +180,21 @@ public final class DeviceManager implements DeviceFactory {
 
     @MainThread
     public boolean startDeviceScan() {
-        Logger.i(TAG, "startDeviceScan...");
-
-        if (getCurrentState() != State.OK) {
-            Logger.w(TAG, "  wrong state - " + getCurrentState().toString());
-            return false;
-        }
-
-        Observable<Device> bluetoothDeviceObservable = bluetoothDeviceManager.startScan();
-        Observable<Device> infraredDeviceObservable = infraRedDeviceManager.startScan();
-
-        List<Observable<Device>> deviceScanObservables = new ArrayList<>();
-        if (bluetoothDeviceObservable != null) deviceScanObservables.add(bluetoothDeviceObservable);
-        if (infraredDeviceObservable != null) deviceScanObservables.add(infraredDeviceObservable);
-
-        if (deviceScanObservables.size() > 0) {
-            setState(State.SCANNING, false, new ScanProgress(0));
-
-            final Disposable timerDisposable = Observable.interval(1, TimeUnit.SECONDS)
-                    .take(SCAN_INTERVAL_SECS)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(
-                            time -> {
-                                int intTime = time.intValue();
-                                Logger.i(TAG, "Device timer scan onNext - " + intTime);
-                                setState(State.SCANNING, false, new ScanProgress(intTime));
-                            },
-                            error -> {
-                                Logger.e(TAG, "Device timer scan onError...", error);
-                                stopDeviceScan();
-                            },
-                            () -> {
-                                Logger.i(TAG, "Device timer scan onComplete...");
-                                stopDeviceScan();
-                            }
-                    );
-
-            Observable.merge(deviceScanObservables)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(Schedulers.io())
-                    .doOnNext(deviceRepository::storeDevice)
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(
-                            device -> {
-                                Logger.i(TAG, "Device scan onNext - " + device);
-                            },
-                            error -> {
-                                Logger.e(TAG, "Device scan onError...", error);
-                                timerDisposable.dispose();
-                                stopDeviceScan();
-                                setState(State.OK, true);
-                            },
-                            () -> {
-                                Logger.i(TAG, "Device scan onComplete...");
-                                timerDisposable.dispose();
-                                setState(State.OK, false);
-                            });
+        return startDeviceScan(ScanMode.LOW_LATENCY);
+    }
 
-            return true;
-        }
+    @MainThread
+    public boolean startDeviceScan(@NonNull ScanMode scanMode) {
+        return startDeviceScan(scanMode, null, SCAN_INTERVAL_SECS);
+    }
 
-        return false;
+    /**
+     * Scans only for the given devices. The scan finishes as soon as all of them have been found
+     * or when the timeout expires.
+     */
+    @MainThread
+    public boolean startDeviceScan(@NonNull Collection<String> deviceIds, int timeoutSecs) {
+        return startDeviceScan(ScanMode.LOW_LATENCY, new HashSet<>(deviceIds), timeoutSecs);
     }
 
     @MainThread
@@ -243,6 +210,54 @@ public final class DeviceManager implements DeviceFactory {
         infraRedDeviceManager.stopScan();
     }
 
+    /**
+     * Connects the device through the connection orchestrator, which limits the number of
+     * parallel connection attempts and retries failed ones.
+     */
+    @MainThread
+    public void connectDevice(@NonNull Device device) {
+        Logger.i(TAG, "connectDevice - " + device);
+        connectionOrchestrator.connect(device);
+    }
+
+    @MainThread
+    public void disconnectDevice(@NonNull Device device) {
+        Logger.i(TAG, "disconnectDevice - " + device);
+        connectionOrchestrator.disconnect(device);
+    }
+
+    @MainThread
+    public void setMaxConcurrentConnections(int maxConcurrentConnections) {
+        connectionOrchestrator.setMaxConcurrentConnections(maxConcurrentConnections);
+    }
+
+    /**
+     * @return the time the last connection of the device took, -1 if it has not been connected.
+     */
+    @MainThread
+    public long getConnectTimeMs(@NonNull Device device) {
+        return connectionOrchestrator.getConnectTimeMs(device);
+    }
+
+    /**
+     * Asks for a short connection interval for the bluetooth device (e.g. while it is being
+     * driven) or a balanced one.
+     */
+    @MainThread
+    public void setHighLinkPriority(@NonNull Device device, boolean isHighLinkPriority) {
+        if (device instanceof BluetoothDevice) {
+            ((BluetoothDevice)device).setHighLinkPriority(isHighLinkPriority);
+        }
+    }
+
+    /**
+     * @return the connection interval of the bluetooth device measured from its writes, -1 if
+     * it is not known.
+     */
+    public int getConnectionIntervalEstimateMs(@NonNull Device device) {
+        return device instanceof BluetoothDevice ? ((BluetoothDevice)device).getConnectionIntervalEstimateMs() : -1;
+    }
+
     @MainThread
     public LiveData<List<Device>> getDeviceListLiveData() {
         Logger.i(TAG, "getDeviceListLiveData...");
@@ -379,6 +394,98 @@ public final class DeviceManager implements DeviceFactory {
     // Private methods
     //
 
+    @MainThread
+    private boolean startDeviceScan(@NonNull ScanMode scanMode, final Set<String> requiredDeviceIds, final int scanIntervalSecs) {
+        Logger.i(TAG, "startDeviceScan - " + scanMode + (requiredDeviceIds != null ? ", required devices: " + requiredDeviceIds : ""));
+
+        if (getCurrentState() != State.OK) {
+            Logger.w(TAG, "  wrong state - " + getCurrentState().toString());
+            return false;
+        }
+
+        // A targeted scan looks only for the addresses of the required devices
+        Set<String> bluetoothAddresses = null;
+        boolean isInfraRedRequired = true;
+        if (requiredDeviceIds != null) {
+            bluetoothAddresses = new HashSet<>();
+            isInfraRedRequired = false;
+
+            for (String deviceId : requiredDeviceIds) {
+                int separatorIndex = deviceId.indexOf('-');
+                if (separatorIndex < 0) continue;
+
+                String type = deviceId.substring(0, separatorIndex);
+                if (type.equals(Device.DeviceType.INFRARED.toString())) {
+                    isInfraRedRequired = true;
+                }
+                else {
+                    bluetoothAddresses.add(deviceId.substring(separatorIndex + 1));
+                }
+            }
+        }
+
+        Observable<Device> bluetoothDeviceObservable = (bluetoothAddresses == null || !bluetoothAddresses.isEmpty()) ? bluetoothDeviceManager.startScan(scanMode, bluetoothAddresses) : null;
+        Observable<Device> infraredDeviceObservable = isInfraRedRequired ? infraRedDeviceManager.startScan() : null;
+
+        List<Observable<Device>> deviceScanObservables = new ArrayList<>();
+        if (bluetoothDeviceObservable != null) deviceScanObservables.add(bluetoothDeviceObservable);
+        if (infraredDeviceObservable != null) deviceScanObservables.add(infraredDeviceObservable);
+
+        if (deviceScanObservables.size() > 0) {
+            setState(State.SCANNING, false, new ScanProgress(scanIntervalSecs, 0));
+
+            final Disposable timerDisposable = Observable.interval(1, TimeUnit.SECONDS)
+                    .take(scanIntervalSecs)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(
+                            time -> {
+                                int intTime = time.intValue();
+                                Logger.i(TAG, "Device timer scan onNext - " + intTime);
+                                setState(State.SCANNING, false, new ScanProgress(scanIntervalSecs, intTime));
+                            },
+                            error -> {
+                                Logger.e(TAG, "Device timer scan onError...", error);
+                                stopDeviceScan();
+                            },
+                            () -> {
+                                Logger.i(TAG, "Device timer scan onComplete...");
+                                stopDeviceScan();
+                            }
+                    );
+
+            Observable.merge(deviceScanObservables)
+                    .subscribeOn(Schedulers.io())
+                    .observeOn(Schedulers.io())
+                    .doOnNext(deviceRepository::storeDevice)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(
+                            device -> {
+                                Logger.i(TAG, "Device scan onNext - " + device);
+
+                                if (requiredDeviceIds != null && requiredDeviceIds.remove(device.getId()) && requiredDeviceIds.isEmpty()) {
+                                    Logger.i(TAG, "  All the required devices have been found.");
+                                    timerDisposable.dispose();
+                                    stopDeviceScan();
+                                }
+                            },
+                            error -> {
+                                Logger.e(TAG, "Device scan onError...", error);
+                                timerDisposable.dispose();
+                                stopDeviceScan();
+                                setState(State.OK, true);
+                            },
+                            () -> {
+                                Logger.i(TAG, "Device scan onComplete...");
+                                timerDisposable.dispose();
+                                setState(State.OK, false);
+                            });
+
+            return true;
+        }
+
+        return false;
+    }
+
     @MainThread
     private State getCurrentState() {
         return stateChangeLiveData.getValue().getCurrentState();
@@ -405,8 +512,8 @@ public final class DeviceManager implements DeviceFactory {
     public static class ScanProgress {
         public int maxProgress;
         public int progress;
-        public ScanProgress(int progress) {
-            this.maxProgress = SCAN_INTERVAL_SECS;
+        public ScanProgress(int maxProgress, int progress) {
+            this.maxProgress = maxProgress;
             this.progress = progress;
         }
     }
@@ -80,7 +80,16 @@ final class DeviceRepository {
     synchronized void storeDevice(@NonNull Device device) {
         Logger.i(TAG, "storeDevice - " + device);
 
-        if (deviceMap.containsKey(device.getId())) {
+        Device storedDevice = deviceMap.get(device.getId());
+        if (storedDevice != null) {
+            // Scans emit the known devices again when their RSSI changes
+            if (storedDevice == device || (device.getRssi() != Device.RSSI_UNKNOWN && device.getRssi() != storedDevice.getRssi())) {
+                Logger.i(TAG, "  RSSI update: " + device.getRssi());
+                storedDevice.setRssi(device.getRssi());
+                deviceListLiveData.postValue(getDeviceList());
+                return;
+            }
+
             Logger.w(TAG, "  There is already a device with the same ID.");
             return;
         }
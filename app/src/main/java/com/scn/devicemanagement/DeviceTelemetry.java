@@ -0,0 +1,33 @@
+package com.scn.devicemanagement;
+
+/**
+ * Battery and status values reported by a hub. Values the hub does not report are NaN.
+ */
+
+public final class DeviceTelemetry {
+
+    //
+    // Members
+    //
+
+    public final float batteryVoltage;
+
+    // Lowest battery voltage since the device has been connected, dips show brown-outs under load
+    public final float lowestBatteryVoltage;
+
+    public final float temperature;
+
+    // Motor currents per channel in amperes, empty if not reported
+    public final float motorCurrents[];
+
+    //
+    // Constructor
+    //
+
+    DeviceTelemetry(float batteryVoltage, float lowestBatteryVoltage, float temperature, float motorCurrents[]) {
+        this.batteryVoltage = batteryVoltage;
+        this.lowestBatteryVoltage = lowestBatteryVoltage;
+        this.temperature = temperature;
+        this.motorCurrents = motorCurrents;
+    }
+}
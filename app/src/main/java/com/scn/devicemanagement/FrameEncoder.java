@@ -0,0 +1,25 @@
+package com.scn.devicemanagement;
+
+/**
+ * Encodes the output values of a device into its protocol frame. The frame is written into a
+ * preallocated buffer which is reused by every encode call, so encoding does not allocate.
+ *
+ * As a quantizer it gives the byte a single output value is encoded to.
+ */
+
+interface FrameEncoder extends OutputState.Quantizer {
+
+    //
+    // API
+    //
+
+    /**
+     * @return the length of the encoded frame.
+     */
+    int encode(int v0, int v1, int v2, int v3);
+
+    /**
+     * @return the buffer holding the last encoded frame. Its length is always the frame length.
+     */
+    byte[] getBuffer();
+}
@@ -0,0 +1,172 @@
+package com.scn.devicemanagement;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattService;
+import android.support.annotation.NonNull;
+
+import com.scn.logger.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Remembers per device address the GATT layout found at service discovery and the service each
+ * characteristic has been resolved in.
+ *
+ * A reconnect with the same layout goes straight to the known service, a changed layout (e.g.
+ * after a firmware update) is detected by its signature and drops the resolved characteristics.
+ */
+
+final class GattLayoutCache {
+
+    //
+    // Constants
+    //
+
+    // Lower half of the bluetooth base UUID (0000xxxx-0000-1000-8000-00805f9b34fb)
+    private static final long BASE_UUID_LSB = 0x800000805f9b34fbL;
+    private static final long BASE_UUID_MSB_LOW = 0x00001000L;
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = GattLayoutCache.class.getSimpleName();
+
+    private final Map<String, Layout> layouts = new HashMap<>();
+
+    //
+    // API
+    //
+
+    /**
+     * To be called when the services of the device have been discovered.
+     * @return false if the layout differs from the one cached for the address.
+     */
+    synchronized boolean onServicesDiscovered(@NonNull String address, @NonNull BluetoothGatt gatt) {
+        int signature = calculateSignature(gatt.getServices());
+
+        Layout layout = layouts.get(address);
+        if (layout == null) {
+            layouts.put(address, new Layout(signature));
+            return true;
+        }
+
+        if (layout.signature == signature) {
+            return true;
+        }
+
+        Logger.w(TAG, "GATT layout of " + address + " has changed.");
+        layout.signature = signature;
+        layout.characteristicServices.clear();
+        return false;
+    }
+
+    synchronized BluetoothGattCharacteristic getCharacteristic(@NonNull String address, @NonNull BluetoothGatt gatt, @NonNull UUID serviceUuid, @NonNull UUID characteristicUuid) {
+        Layout layout = layouts.get(address);
+        if (layout == null) {
+            layout = new Layout(calculateSignature(gatt.getServices()));
+            layouts.put(address, layout);
+        }
+
+        UUID resolvedServiceUuid = layout.characteristicServices.get(characteristicUuid);
+        if (resolvedServiceUuid != null) {
+            BluetoothGattService service = gatt.getService(resolvedServiceUuid);
+            BluetoothGattCharacteristic characteristic = service != null ? findCharacteristic(service, characteristicUuid) : null;
+            if (characteristic != null) {
+                return characteristic;
+            }
+
+            layout.characteristicServices.remove(characteristicUuid);
+        }
+
+        BluetoothGattService service = findService(gatt, serviceUuid);
+        if (service == null) {
+            Logger.w(TAG, "  No such service found: " + serviceUuid);
+            return null;
+        }
+
+        BluetoothGattCharacteristic characteristic = findCharacteristic(service, characteristicUuid);
+        if (characteristic == null) {
+            Logger.w(TAG, "  No such characteristic found: " + characteristicUuid);
+            return null;
+        }
+
+        layout.characteristicServices.put(characteristicUuid, service.getUuid());
+        return characteristic;
+    }
+
+    //
+    // Private methods
+    //
+
+    private static BluetoothGattService findService(@NonNull BluetoothGatt gatt, @NonNull UUID uuid) {
+        BluetoothGattService service = gatt.getService(uuid);
+        if (service != null || !isShortUuid(uuid)) {
+            return service;
+        }
+
+        // 16 bit UUIDs only have to match in the short part
+        long shortUuid = uuid.getMostSignificantBits() >>> 32;
+        List<BluetoothGattService> services = gatt.getServices();
+        for (int i = 0; i < services.size(); i++) {
+            if ((services.get(i).getUuid().getMostSignificantBits() >>> 32) == shortUuid) {
+                return services.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    private static BluetoothGattCharacteristic findCharacteristic(@NonNull BluetoothGattService service, @NonNull UUID uuid) {
+        BluetoothGattCharacteristic characteristic = service.getCharacteristic(uuid);
+        if (characteristic != null || !isShortUuid(uuid)) {
+            return characteristic;
+        }
+
+        long shortUuid = uuid.getMostSignificantBits() >>> 32;
+        List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+        for (int i = 0; i < characteristics.size(); i++) {
+            if ((characteristics.get(i).getUuid().getMostSignificantBits() >>> 32) == shortUuid) {
+                return characteristics.get(i);
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean isShortUuid(@NonNull UUID uuid) {
+        return uuid.getLeastSignificantBits() == BASE_UUID_LSB && (uuid.getMostSignificantBits() & 0xffffffffL) == BASE_UUID_MSB_LOW;
+    }
+
+    private static int calculateSignature(@NonNull List<BluetoothGattService> services) {
+        int signature = 1;
+        for (int i = 0; i < services.size(); i++) {
+            BluetoothGattService service = services.get(i);
+            signature = 31 * signature + service.getUuid().hashCode();
+
+            List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
+            for (int j = 0; j < characteristics.size(); j++) {
+                signature = 31 * signature + characteristics.get(j).getUuid().hashCode();
+            }
+        }
+
+        return signature;
+    }
+
+    //
+    // Layout
+    //
+
+    private static final class Layout {
+        int signature;
+        final Map<UUID, UUID> characteristicServices = new HashMap<>();
+
+        Layout(int signature) {
+            this.signature = signature;
+        }
+    }
+}
@@ -0,0 +1,507 @@
+package com.scn.devicemanagement;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.scn.logger.Logger;
+
+import java.util.ArrayDeque;
+
+/**
+ * Serializes the characteristic writes of a device, Android allows a single outstanding GATT
+ * operation per connection.
+ *
+ * Writes are queued in lanes, served in this order:
+ * - emergency stop: only the latest frame is kept, it also drops the pending drive frame,
+ * - config: FIFO of configuration commands, reads, descriptor writes and remote RSSI reads, none
+ *   of them may be lost,
+ * - drive: only the latest frame is kept, an older pending one is dropped.
+ */
+
+final class GattOperationQueue {
+
+    //
+    // Public types
+    //
+
+    enum Lane {
+        EMERGENCY_STOP,
+        CONFIG,
+        DRIVE
+    }
+
+    interface Listener {
+
+        /**
+         * Called when an operation has completed and no emergency stop or drive frame is pending
+         * or in flight.
+         */
+        void onDriveLaneDrained();
+    }
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = GattOperationQueue.class.getSimpleName();
+
+    private static final int MAX_CONFIG_DEPTH = 16;
+    private static final int MAX_ABANDONED_OPERATIONS = 8;
+
+    private final Listener listener;
+    private final int operationTimeoutMs;
+    private final Object lock = new Object();
+
+    private BluetoothGatt bluetoothGatt = null;
+
+    private final ArrayDeque<Operation> configOperations = new ArrayDeque<>();
+    private final Operation driveOperation = new Operation(Lane.DRIVE);
+    private final Operation emergencyStopOperation = new Operation(Lane.EMERGENCY_STOP);
+    private boolean isDrivePending = false;
+    private boolean isEmergencyStopPending = false;
+
+    private Operation operationInFlight = null;
+    private long operationIssueTime = 0;
+
+    // The target is kept apart, the operations of the stop and drive lanes are reused
+    private long operationInFlightSequence = 0;
+    private Object operationInFlightTarget = null;
+    private long lastIssueSequence = 0;
+
+    // A completion matching the operation in flight has been taken for an abandoned one
+    private boolean isInFlightCompletionAmbiguous = false;
+
+    // Operations given up after their timeout whose completion may still arrive, oldest first
+    private final ArrayDeque<IssuedOperation> abandonedOperations = new ArrayDeque<>();
+
+    private final int dropCounts[] = new int[Lane.values().length];
+    private int staleCompletionCount = 0;
+
+    //
+    // Constructor
+    //
+
+    GattOperationQueue(@NonNull Listener listener, int operationTimeoutMs) {
+        this.listener = listener;
+        this.operationTimeoutMs = operationTimeoutMs;
+    }
+
+    //
+    // API
+    //
+
+    void open(@NonNull BluetoothGatt bluetoothGatt) {
+        synchronized (lock) {
+            clearInternal();
+            this.bluetoothGatt = bluetoothGatt;
+        }
+    }
+
+    void close() {
+        synchronized (lock) {
+            clearInternal();
+            bluetoothGatt = null;
+        }
+    }
+
+    /**
+     * Queues a write of the value to the characteristic. The value is copied, the buffer can be
+     * reused by the caller right away.
+     * @return false if the write has been rejected.
+     */
+    boolean enqueue(@NonNull Lane lane, @NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+        synchronized (lock) {
+            if (bluetoothGatt == null) {
+                dropCounts[lane.ordinal()]++;
+                return false;
+            }
+
+            switch (lane) {
+                case EMERGENCY_STOP:
+                    if (isDrivePending) {
+                        isDrivePending = false;
+                        dropCounts[Lane.DRIVE.ordinal()]++;
+                    }
+                    if (isEmergencyStopPending) dropCounts[lane.ordinal()]++;
+                    emergencyStopOperation.set(characteristic, value);
+                    isEmergencyStopPending = true;
+                    break;
+
+                case CONFIG:
+                    Operation operation = new Operation(Lane.CONFIG);
+                    operation.set(characteristic, value);
+                    if (!addConfigOperation(operation)) {
+                        return false;
+                    }
+                    break;
+
+                case DRIVE:
+                    if (isDrivePending) dropCounts[lane.ordinal()]++;
+                    driveOperation.set(characteristic, value);
+                    isDrivePending = true;
+                    break;
+            }
+
+            issueIfIdle();
+            return true;
+        }
+    }
+
+    /**
+     * Queues a read of the characteristic in the config lane, the value arrives in the read
+     * callback of the GATT.
+     * @return false if the read has been rejected.
+     */
+    boolean enqueueRead(@NonNull BluetoothGattCharacteristic characteristic) {
+        synchronized (lock) {
+            Operation operation = new Operation(Lane.CONFIG);
+            operation.setRead(characteristic);
+            if (!addConfigOperation(operation)) {
+                return false;
+            }
+
+            issueIfIdle();
+            return true;
+        }
+    }
+
+    /**
+     * Queues a write of the descriptor (e.g. the client characteristic configuration) in the
+     * config lane.
+     * @return false if the write has been rejected.
+     */
+    boolean enqueueDescriptorWrite(@NonNull BluetoothGattDescriptor descriptor, @NonNull byte[] value) {
+        synchronized (lock) {
+            Operation operation = new Operation(Lane.CONFIG);
+            operation.setDescriptor(descriptor, value);
+            if (!addConfigOperation(operation)) {
+                return false;
+            }
+
+            issueIfIdle();
+            return true;
+        }
+    }
+
+    /**
+     * Queues a read of the remote RSSI in the config lane, the value arrives in the RSSI callback
+     * of the GATT.
+     * @return false if the read has been rejected.
+     */
+    boolean enqueueRemoteRssiRead() {
+        synchronized (lock) {
+            Operation operation = new Operation(Lane.CONFIG);
+            operation.setRemoteRssiRead();
+            if (!addConfigOperation(operation)) {
+                return false;
+            }
+
+            issueIfIdle();
+            return true;
+        }
+    }
+
+    /**
+     * To be called from the write completion callback of the GATT.
+     * @return the time from issuing the completed write, -1 if the completion does not belong to
+     * the operation in flight.
+     */
+    int onCharacteristicWriteCompleted(@NonNull BluetoothGattCharacteristic characteristic) {
+        return onOperationCompleted(OperationType.WRITE_CHARACTERISTIC, characteristic);
+    }
+
+    /**
+     * To be called from the read completion callback of the GATT.
+     * @return the time from issuing the completed read, -1 if the completion does not belong to
+     * the operation in flight.
+     */
+    int onCharacteristicReadCompleted(@NonNull BluetoothGattCharacteristic characteristic) {
+        return onOperationCompleted(OperationType.READ_CHARACTERISTIC, characteristic);
+    }
+
+    /**
+     * To be called from the descriptor write completion callback of the GATT.
+     * @return the time from issuing the completed write, -1 if the completion does not belong to
+     * the operation in flight.
+     */
+    int onDescriptorWriteCompleted(@NonNull BluetoothGattDescriptor descriptor) {
+        return onOperationCompleted(OperationType.WRITE_DESCRIPTOR, descriptor);
+    }
+
+    /**
+     * To be called from the remote RSSI read callback of the GATT.
+     * @return the time from issuing the completed read, -1 if the completion does not belong to
+     * the operation in flight.
+     */
+    int onRemoteRssiReadCompleted() {
+        return onOperationCompleted(OperationType.READ_REMOTE_RSSI, null);
+    }
+
+    /**
+     * @return true if no emergency stop or drive frame is pending or in flight, the config lane is
+     * not taken into account.
+     */
+    boolean isDriveLaneIdle() {
+        synchronized (lock) {
+            return isDriveLaneIdleInternal();
+        }
+    }
+
+    int getQueueDepth(@NonNull Lane lane) {
+        synchronized (lock) {
+            switch (lane) {
+                case EMERGENCY_STOP: return isEmergencyStopPending ? 1 : 0;
+                case CONFIG: return configOperations.size();
+                case DRIVE: return isDrivePending ? 1 : 0;
+            }
+
+            return 0;
+        }
+    }
+
+    int getDropCount(@NonNull Lane lane) {
+        synchronized (lock) {
+            return dropCounts[lane.ordinal()];
+        }
+    }
+
+    int getStaleCompletionCount() {
+        synchronized (lock) {
+            return staleCompletionCount;
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private int onOperationCompleted(@NonNull OperationType type, Object target) {
+        boolean isDrained;
+        int roundTripTimeMs;
+
+        synchronized (lock) {
+            // The GATT completes the operations in the order they were issued, a completion
+            // belongs to the oldest abandoned operation it matches before the one in flight. The
+            // abandoned operations skipped over never complete, their completion got lost.
+            while (!abandonedOperations.isEmpty()) {
+                IssuedOperation abandonedOperation = abandonedOperations.removeFirst();
+                if (abandonedOperation.matches(type, target)) {
+                    Logger.w(TAG, "Ignoring late completion of operation " + abandonedOperation.sequence + ", type: " + type);
+                    staleCompletionCount++;
+                    if (isInFlight(type, target)) {
+                        isInFlightCompletionAmbiguous = true;
+                    }
+                    return -1;
+                }
+            }
+
+            if (!isInFlight(type, target)) {
+                Logger.w(TAG, "Ignoring stale completion, type: " + type);
+                staleCompletionCount++;
+                return -1;
+            }
+
+            roundTripTimeMs = (int)(SystemClock.uptimeMillis() - operationIssueTime);
+            operationInFlight = null;
+            operationInFlightTarget = null;
+            issueNext();
+            isDrained = isDriveLaneIdleInternal();
+        }
+
+        if (isDrained) {
+            listener.onDriveLaneDrained();
+        }
+
+        return roundTripTimeMs;
+    }
+
+    private boolean isDriveLaneIdleInternal() {
+        return !isEmergencyStopPending && !isDrivePending && (operationInFlight == null || operationInFlight.lane == Lane.CONFIG);
+    }
+
+    private boolean isInFlight(@NonNull OperationType type, Object target) {
+        return operationInFlight != null && operationInFlight.type == type && isSameTarget(type, operationInFlightTarget, target);
+    }
+
+    private static boolean isSameTarget(@NonNull OperationType type, Object issuedTarget, Object completedTarget) {
+        return type == OperationType.READ_REMOTE_RSSI || issuedTarget == completedTarget;
+    }
+
+    private void clearInternal() {
+        configOperations.clear();
+        isDrivePending = false;
+        isEmergencyStopPending = false;
+        operationInFlight = null;
+        operationInFlightTarget = null;
+        abandonedOperations.clear();
+    }
+
+    private boolean addConfigOperation(@NonNull Operation operation) {
+        if (bluetoothGatt == null) {
+            dropCounts[Lane.CONFIG.ordinal()]++;
+            return false;
+        }
+
+        if (configOperations.size() >= MAX_CONFIG_DEPTH) {
+            Logger.w(TAG, "Config lane is full, dropping command.");
+            dropCounts[Lane.CONFIG.ordinal()]++;
+            return false;
+        }
+
+        configOperations.addLast(operation);
+        return true;
+    }
+
+    private void issueIfIdle() {
+        if (operationInFlight != null && SystemClock.uptimeMillis() - operationIssueTime > operationTimeoutMs) {
+            Logger.w(TAG, "Operation completion timed out.");
+
+            // If the completion of the abandoned operation got lost, the one of this operation has
+            // been taken for it, it does not arrive again
+            if (!isInFlightCompletionAmbiguous) {
+                if (abandonedOperations.size() >= MAX_ABANDONED_OPERATIONS) {
+                    abandonedOperations.removeFirst();
+                }
+                abandonedOperations.addLast(new IssuedOperation(operationInFlightSequence, operationInFlight.type, operationInFlightTarget));
+            }
+            operationInFlight = null;
+            operationInFlightTarget = null;
+        }
+
+        if (operationInFlight == null) {
+            issueNext();
+        }
+    }
+
+    private void issueNext() {
+        while (true) {
+            Operation operation;
+            if (isEmergencyStopPending) {
+                isEmergencyStopPending = false;
+                operation = emergencyStopOperation;
+            }
+            else if (!configOperations.isEmpty()) {
+                operation = configOperations.removeFirst();
+            }
+            else if (isDrivePending) {
+                isDrivePending = false;
+                operation = driveOperation;
+            }
+            else {
+                return;
+            }
+
+            if (issue(operation)) {
+                operationInFlight = operation;
+                operationInFlightSequence = ++lastIssueSequence;
+                operationInFlightTarget = operation.getTarget();
+                isInFlightCompletionAmbiguous = false;
+                operationIssueTime = SystemClock.uptimeMillis();
+                return;
+            }
+
+            Logger.w(TAG, "Failed to issue operation, lane: " + operation.lane);
+            dropCounts[operation.lane.ordinal()]++;
+        }
+    }
+
+    private boolean issue(@NonNull Operation operation) {
+        if (bluetoothGatt == null) {
+            return false;
+        }
+
+        try {
+            // The value is handed over by the write calls, the buffer can be reused after them
+            switch (operation.type) {
+                case WRITE_CHARACTERISTIC:
+                    return operation.characteristic.setValue(operation.value) &&
+                            bluetoothGatt.writeCharacteristic(operation.characteristic);
+
+                case READ_CHARACTERISTIC:
+                    return bluetoothGatt.readCharacteristic(operation.characteristic);
+
+                case WRITE_DESCRIPTOR:
+                    return operation.descriptor.setValue(operation.value) &&
+                            bluetoothGatt.writeDescriptor(operation.descriptor);
+
+                case READ_REMOTE_RSSI:
+                    return bluetoothGatt.readRemoteRssi();
+            }
+
+            return false;
+        }
+        catch (Exception e) {
+            Logger.w(TAG, "Failed to issue GATT operation.");
+            return false;
+        }
+    }
+
+    //
+    // Operation
+    //
+
+    private enum OperationType {
+        WRITE_CHARACTERISTIC,
+        READ_CHARACTERISTIC,
+        WRITE_DESCRIPTOR,
+        READ_REMOTE_RSSI
+    }
+
+    private static final class Operation {
+        final Lane lane;
+        OperationType type = OperationType.WRITE_CHARACTERISTIC;
+        BluetoothGattCharacteristic characteristic = null;
+        BluetoothGattDescriptor descriptor = null;
+        byte[] value = null;
+
+        Operation(@NonNull Lane lane) {
+            this.lane = lane;
+        }
+
+        void set(@NonNull BluetoothGattCharacteristic characteristic, @NonNull byte[] value) {
+            this.characteristic = characteristic;
+            if (this.value == null || this.value.length != value.length) {
+                this.value = new byte[value.length];
+            }
+            System.arraycopy(value, 0, this.value, 0, value.length);
+        }
+
+        void setRead(@NonNull BluetoothGattCharacteristic characteristic) {
+            this.type = OperationType.READ_CHARACTERISTIC;
+            this.characteristic = characteristic;
+        }
+
+        void setDescriptor(@NonNull BluetoothGattDescriptor descriptor, @NonNull byte[] value) {
+            this.type = OperationType.WRITE_DESCRIPTOR;
+            this.descriptor = descriptor;
+            this.value = value.clone();
+        }
+
+        void setRemoteRssiRead() {
+            this.type = OperationType.READ_REMOTE_RSSI;
+        }
+
+        Object getTarget() {
+            return type == OperationType.WRITE_DESCRIPTOR ? descriptor : characteristic;
+        }
+    }
+
+    private static final class IssuedOperation {
+        final long sequence;
+        final OperationType type;
+        final Object target;
+
+        IssuedOperation(long sequence, @NonNull OperationType type, Object target) {
+            this.sequence = sequence;
+            this.type = type;
+            this.target = target;
+        }
+
+        boolean matches(@NonNull OperationType type, Object target) {
+            return this.type == type && isSameTarget(type, this.target, target);
+        }
+    }
+}
@@ -74,14 +74,12 @@ final class InfraRedDevice extends Device {
         return true;
     }
 
-    @MainThread
     @Override
     public int getOutput(int channel) {
         checkChannel(channel);
         return infraRedDeviceManager.getOutput(this, channel);
     }
 
-    @MainThread
     @Override
     public void setOutput(int channel, int value) {
         //Logger.i(TAG, "setOutput - channel: " + channel + ", value: " + value);
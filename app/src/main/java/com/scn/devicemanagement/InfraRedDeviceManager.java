@@ -1,13 +1,14 @@
 package com.scn.devicemanagement;
 
 import android.content.Context;
-import android.hardware.ConsumerIrManager;
+import android.os.SystemClock;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
 
 import com.scn.logger.Logger;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 import io.reactivex.Observable;
@@ -17,7 +18,16 @@ import io.reactivex.Observable;
  */
 
 @Singleton
-final class InfraRedDeviceManager extends SpecificDeviceManager {
+final class InfraRedDeviceManager extends SpecificDeviceManager implements OutputScheduler.OutputSender {
+
+    //
+    // Public types
+    //
+
+    // Time source of the frame timing
+    interface Clock {
+        long uptimeMillis();
+    }
 
     //
     // Private members
@@ -31,59 +41,58 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
     private static final int IR_ONE_GAP = 553;
     private static final int IR_ZERO_GAP = 263;
 
-    private final ConsumerIrManager irManager;
+    // PF timing: tm is the maximum length of a message, a message is repeated 5 times, the first
+    // repeats after 5 tm, the later ones after (6 + 2 * channel) tm to avoid collisions
+    private static final int IR_MESSAGE_TIME_MS = 16;
+    private static final int IR_REPEAT_COUNT = 5;
+    private static final int IR_FIRST_REPEATS = 2;
+
+    private static final int OUTPUT_PERIOD_MS = IR_MESSAGE_TIME_MS;
+
+    // The emitter follows the infra red preference, a new one is picked when a session starts
+    private final Provider<InfraRedEmitter> irEmitterProvider;
+    private volatile InfraRedEmitter irEmitter;
+    private final OutputScheduler outputScheduler;
+    private final Clock clock;
 
     private int numConnectedDevices = 0;
 
-    private Thread irThread = null;
-    private final Object irThreadLock = new Object();
+    private final OutputState outputStates[] = new OutputState[] { new OutputState(), new OutputState(), new OutputState(), new OutputState() };
+
+    // Prebuilt pulse patterns of every frame, indexed by (address, nibble2, nibble3)
+    private final int irFrames[][] = buildIrFrames();
+
+    // Accessed only on the output thread
+    private final int lastSentVersions[] = new int[4];
+    private final int repeatsSent[] = new int[4];
+    private final long nextSendTimes[] = new long[4];
+
+    // Statistics of the session
+    private volatile int wakeUpCount = 0;
+    private final int frameCounts[] = new int[4];
+    private long sessionStartTime = 0;
 
-    private final int outputValues[][] = new int[4][2];
-    private final boolean isContinueSending[] = new boolean[4];
-    private final int irData[] = new int[18 * 2];
+    private final OutputState.Quantizer nibbleQuantizer = InfraRedDeviceManager::calculateOutputNibble;
 
     //
     // Constructor
     //
 
     @Inject
-    InfraRedDeviceManager(@NonNull Context context) {
+    InfraRedDeviceManager(@NonNull Context context, @NonNull OutputScheduler outputScheduler, @NonNull Provider<InfraRedEmitter> irEmitterProvider) {
+        this(context, outputScheduler, irEmitterProvider, SystemClock::uptimeMillis);
+    }
+
+    InfraRedDeviceManager(@NonNull Context context, @NonNull OutputScheduler outputScheduler, @NonNull Provider<InfraRedEmitter> irEmitterProvider, @NonNull Clock clock) {
         super(context);
         Logger.i(TAG, "constructor...");
 
-        ConsumerIrManager irManager = null;
-        try {
-            irManager = (ConsumerIrManager)context.getSystemService(Context.CONSUMER_IR_SERVICE);
-            if (irManager != null && irManager.hasIrEmitter()) {
-                Logger.i(TAG, "  Supported frequency ranges:");
-                boolean isIrFrequencySupported = false;
-
-                ConsumerIrManager.CarrierFrequencyRange frequencyRanges[] = irManager.getCarrierFrequencies();
-                for (ConsumerIrManager.CarrierFrequencyRange frequencyRange : frequencyRanges) {
-                    int minFreq = frequencyRange.getMinFrequency();
-                    int maxFreq = frequencyRange.getMaxFrequency();
-                    Logger.i(TAG, "    Range: " + minFreq + " - " + maxFreq);
-                    if (minFreq <= IR_FREQUENCY && IR_FREQUENCY <= maxFreq) isIrFrequencySupported = true;
-                }
+        this.outputScheduler = outputScheduler;
+        this.irEmitterProvider = irEmitterProvider;
+        this.irEmitter = irEmitterProvider.get();
+        this.clock = clock;
 
-                if (!isIrFrequencySupported) {
-                    Logger.i(TAG, "  IR frequency is not supported.");
-                    irManager = null;
-                }
-            }
-            else {
-                Logger.i(TAG, "  No suitable IR emitter.");
-                irManager = null;
-            }
-
-            resetOutputs();
-        }
-        catch (Exception ex) {
-            Logger.e(TAG, "Could not retrieve IR manager.");
-        }
-        finally {
-            this.irManager = irManager;
-        }
+        resetOutputs();
     }
 
     //
@@ -93,7 +102,7 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
     boolean isInfraRedSupported() {
         Logger.i(TAG, "isInfraRedSupported...");
 
-        boolean isSupported = irManager != null;
+        boolean isSupported = irEmitterProvider.get().isSupported(IR_FREQUENCY);
         Logger.i(TAG, "  Infra is " + (isSupported ? "" : "NOT ") + "supported.");
         return isSupported;
     }
@@ -109,7 +118,11 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
 
         numConnectedDevices++;
         if (numConnectedDevices == 1) {
-            startIrThread();
+            resetOutputs();
+            resetStatistics();
+            irEmitter = irEmitterProvider.get();
+            irEmitter.open();
+            outputScheduler.register(this, OUTPUT_PERIOD_MS);
         }
     }
 
@@ -124,28 +137,49 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
 
         numConnectedDevices--;
         if (numConnectedDevices == 0) {
-            stopIrThread();
+            outputScheduler.unregister(this);
+            irEmitter.close();
+
+            int savedSendCount = 0;
+            for (OutputState outputState : outputStates) savedSendCount += outputState.getSavedSendCount();
+            Logger.i(TAG, "  Sends saved by wire resolution change detection: " + savedSendCount);
+            logStatistics();
         }
     }
 
-    @MainThread
     int getOutput(@NonNull Device device, int channel) {
         int address = convertAddress(device.getAddress());
-        return outputValues[address][channel];
+        return outputStates[address].get(channel);
     }
 
-    @MainThread
     void setOutput(@NonNull Device device, int channel, int value) {
         //Logger.i(TAG, "setOutput - " + device + ", channel: " + channel + ", value: " + value);
 
         int address = convertAddress(device.getAddress());
 
-        if (outputValues[address][channel] == value) {
-            return;
+        if (outputStates[address].set(channel, value, nibbleQuantizer)) {
+            outputScheduler.wakeUp(this);
+        }
+    }
+
+    int getWakeUpCount() {
+        return wakeUpCount;
+    }
+
+    int getFrameCount(int address) {
+        synchronized (frameCounts) {
+            return frameCounts[address];
         }
+    }
 
-        outputValues[address][channel] = value;
-        isContinueSending[address] = true;
+    //
+    // OutputScheduler.OutputSender overrides
+    //
+
+    @Override
+    public boolean onOutputTick() {
+        wakeUpCount++;
+        return sendIrData();
     }
 
     //
@@ -197,9 +231,9 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
     private void resetOutputs() {
         Logger.i(TAG, "resetOutputs");
         for (int address = 0; address < 4; address++) {
-            outputValues[address][0] = 0;
-            outputValues[address][1] = 0;
-            isContinueSending[address] = false;
+            outputStates[address].reset();
+            lastSentVersions[address] = OutputState.getVersion(outputStates[address].snapshot());
+            repeatsSent[address] = IR_REPEAT_COUNT;
         }
     }
 
@@ -215,82 +249,77 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
         }
     }
 
-    private void startIrThread() {
-        Logger.i(TAG, "startIrThread...");
-
-        synchronized (irThreadLock) {
-            stopIrThread();
-            resetOutputs();
-
-            irThread = new Thread(() -> {
-                Logger.i(TAG, "Entering IR thread...");
-
-                while (!Thread.currentThread().isInterrupted()) {
-                    sendIrData();
-
-                    try {
-                        Thread.sleep(20);
-                    }
-                    catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-
-                Logger.i(TAG, "Exiting from IR thread.");
-            });
-            irThread.start();
+    private void resetStatistics() {
+        wakeUpCount = 0;
+        synchronized (frameCounts) {
+            for (int address = 0; address < 4; address++) frameCounts[address] = 0;
         }
+        sessionStartTime = clock.uptimeMillis();
     }
 
-    private void stopIrThread() {
-        Logger.i(TAG, "stopIrThread...");
-
-        synchronized (irThreadLock) {
-            if (irThread == null) {
-                Logger.i(TAG, "  IR thread is already null.");
-                return;
-            }
-
-            if (!irThread.isInterrupted()) {
-                Logger.i(TAG, "  Interrupting the IR thread...");
-                irThread.interrupt();
-                try { irThread.join(); } catch (InterruptedException ignored) {}
-            }
-
-            irThread = null;
+    private void logStatistics() {
+        long sessionTime = Math.max(1, clock.uptimeMillis() - sessionStartTime);
+        Logger.i(TAG, "  Output thread wake ups: " + wakeUpCount);
+        for (int address = 0; address < 4; address++) {
+            Logger.i(TAG, "  Address " + (address + 1) + " frames per second: " + (getFrameCount(address) * 1000f / sessionTime));
         }
     }
 
-    private void sendIrData() {
+    private boolean sendIrData() {
+        long now = clock.uptimeMillis();
+        long nextSendTime = Long.MAX_VALUE;
+
         for (int address = 0; address < 4; address++) {
-            if (isContinueSending[address]) {
-                int index = 0;
+            long snapshot = outputStates[address].snapshot();
+            int version = OutputState.getVersion(snapshot);
+
+            // A change restarts the repeats right away
+            if (version != lastSentVersions[address]) {
+                lastSentVersions[address] = version;
+                repeatsSent[address] = 0;
+                nextSendTimes[address] = now;
+            }
 
-                int value0 = outputValues[address][0];
-                int value1 = outputValues[address][1];
+            // Non-zero outputs are kept refreshed, the stop frame is only repeated the required times
+            boolean isStop = OutputState.isAllZero(snapshot, nibbleQuantizer);
+            if (isStop && IR_REPEAT_COUNT <= repeatsSent[address]) {
+                continue;
+            }
 
-                int nibble1 = 0x4 | address;
-                int nibble2 = calculateOutputNibble(value0);
-                int nibble3 = calculateOutputNibble(value1);
-                int nibbleLrc = 0xf ^ nibble1 ^ nibble2 ^ nibble3;
+            if (nextSendTimes[address] <= now) {
+                int nibble2 = calculateOutputNibble(OutputState.getValue(snapshot, 0));
+                int nibble3 = calculateOutputNibble(OutputState.getValue(snapshot, 1));
 
-                index = appendStartStop(index);
-                index = appendNibble(index, nibble1);
-                index = appendNibble(index, nibble2);
-                index = appendNibble(index, nibble3);
-                index = appendNibble(index, nibbleLrc);
-                appendStartStop(index);
+                irEmitter.transmit(IR_FREQUENCY, irFrames[getIrFrameIndex(address, nibble2, nibble3)]);
 
-                irManager.transmit(IR_FREQUENCY, irData);
+                synchronized (frameCounts) {
+                    frameCounts[address]++;
+                }
+                repeatsSent[address]++;
+                nextSendTimes[address] = now + getRepeatDelayMs(address, repeatsSent[address]);
 
-                if (value0 == 0 && value1 == 0) {
-                    isContinueSending[address] = false;
+                if (isStop && IR_REPEAT_COUNT <= repeatsSent[address]) {
+                    continue;
                 }
             }
+
+            nextSendTime = Math.min(nextSendTime, nextSendTimes[address]);
+        }
+
+        if (nextSendTime == Long.MAX_VALUE) {
+            return false;
         }
+
+        outputScheduler.setNextTickDelay(this, (int)Math.max(0, nextSendTime - clock.uptimeMillis()));
+        return true;
     }
 
-    private int calculateOutputNibble(int value) {
+    private static int getRepeatDelayMs(int address, int repeatsSent) {
+        int channel = address + 1;
+        return repeatsSent <= IR_FIRST_REPEATS ? 5 * IR_MESSAGE_TIME_MS : (6 + 2 * channel) * IR_MESSAGE_TIME_MS;
+    }
+
+    private static int calculateOutputNibble(int value) {
         if (value < 0) {
             return (8 - (Math.abs(value) >> 5)) | 8;
         }
@@ -299,23 +328,57 @@ final class InfraRedDeviceManager extends SpecificDeviceManager {
         }
     }
 
-    private int appendStartStop(int index) {
+    static int getIrFrameIndex(int address, int nibble2, int nibble3) {
+        return (address << 8) | (nibble2 << 4) | nibble3;
+    }
+
+    static int[][] buildIrFrames() {
+        int irFrames[][] = new int[4 * 16 * 16][];
+        for (int address = 0; address < 4; address++) {
+            for (int nibble2 = 0; nibble2 < 16; nibble2++) {
+                for (int nibble3 = 0; nibble3 < 16; nibble3++) {
+                    irFrames[getIrFrameIndex(address, nibble2, nibble3)] = buildIrFrame(address, nibble2, nibble3);
+                }
+            }
+        }
+
+        return irFrames;
+    }
+
+    static int[] buildIrFrame(int address, int nibble2, int nibble3) {
+        int irData[] = new int[18 * 2];
+        int index = 0;
+
+        int nibble1 = 0x4 | address;
+        int nibbleLrc = 0xf ^ nibble1 ^ nibble2 ^ nibble3;
+
+        index = appendStartStop(irData, index);
+        index = appendNibble(irData, index, nibble1);
+        index = appendNibble(irData, index, nibble2);
+        index = appendNibble(irData, index, nibble3);
+        index = appendNibble(irData, index, nibbleLrc);
+        appendStartStop(irData, index);
+
+        return irData;
+    }
+
+    private static int appendStartStop(int irData[], int index) {
         irData[index++] = IR_MARK;
         irData[index++] = IR_START_STOP_GAP;
         return index;
     }
 
-    private int appendBit(int index, int bit) {
+    private static int appendBit(int irData[], int index, int bit) {
         irData[index++] = IR_MARK;
         irData[index++] = (bit != 0) ? IR_ONE_GAP : IR_ZERO_GAP;
         return index;
     }
 
-    private int appendNibble(int index, int nibble) {
-        index = appendBit(index, nibble & 8);
-        index = appendBit(index, nibble & 4);
-        index = appendBit(index, nibble & 2);
-        index = appendBit(index, nibble & 1);
+    private static int appendNibble(int irData[], int index, int nibble) {
+        index = appendBit(irData, index, nibble & 8);
+        index = appendBit(irData, index, nibble & 4);
+        index = appendBit(irData, index, nibble & 2);
+        index = appendBit(irData, index, nibble & 1);
         return index;
     }
 }
@@ -0,0 +1,28 @@
+package com.scn.devicemanagement;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Hardware transmitting the PF infra red frames.
+ */
+
+interface InfraRedEmitter {
+
+    boolean isSupported(int carrierFrequency);
+
+    /**
+     * Called before the first frame of a session is transmitted.
+     */
+    void open();
+
+    /**
+     * Called when no more frames are going to be transmitted in the session.
+     */
+    void close();
+
+    /**
+     * Transmits the pattern of alternating mark and space durations in microseconds. Called on
+     * the output thread, the pattern is never modified after it has been passed in.
+     */
+    void transmit(int carrierFrequency, @NonNull int[] pattern);
+}
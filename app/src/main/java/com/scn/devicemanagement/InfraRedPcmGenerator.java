@@ -0,0 +1,88 @@
+package com.scn.devicemanagement;
+
+/**
+ * Renders infra red mark/space patterns as 16 bit stereo PCM for an IR LED driven by the audio
+ * jack.
+ *
+ * The LED (or two LEDs in anti-parallel) is connected between the left and the right channel.
+ * During a mark both channels carry a sine of half the carrier frequency in opposite phase, so
+ * the LED lights up on every half wave, which gives the full carrier frequency. Spaces are
+ * silence.
+ *
+ * Plain Java so it can be checked on the JVM.
+ */
+
+final class InfraRedPcmGenerator {
+
+    //
+    // Constants
+    //
+
+    static final int CHANNEL_COUNT = 2;
+
+    //
+    // Private members
+    //
+
+    private final int sampleRate;
+    private final int carrierFrequency;
+
+    //
+    // Constructor
+    //
+
+    InfraRedPcmGenerator(int sampleRate, int carrierFrequency) {
+        if (carrierFrequency / 2 >= sampleRate / 2) {
+            throw new IllegalArgumentException("The sample rate is too low for the carrier frequency.");
+        }
+
+        this.sampleRate = sampleRate;
+        this.carrierFrequency = carrierFrequency;
+    }
+
+    //
+    // API
+    //
+
+    /**
+     * @param pattern alternating mark and space durations in microseconds, starting with a mark.
+     * @return interleaved left / right samples.
+     */
+    short[] render(int[] pattern) {
+        long totalMicros = 0;
+        for (int duration : pattern) totalMicros += duration;
+
+        short samples[] = new short[toSampleIndex(totalMicros) * CHANNEL_COUNT];
+
+        // Boundaries are computed from the elapsed time so rounding errors don't accumulate
+        long elapsedMicros = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            int startSample = toSampleIndex(elapsedMicros);
+            elapsedMicros += pattern[i];
+            int endSample = toSampleIndex(elapsedMicros);
+
+            if ((i & 1) == 0) {
+                renderMark(samples, startSample, endSample);
+            }
+        }
+
+        return samples;
+    }
+
+    //
+    // Private methods
+    //
+
+    private int toSampleIndex(long micros) {
+        return (int)((micros * sampleRate + 500000) / 1000000);
+    }
+
+    private void renderMark(short[] samples, int startSample, int endSample) {
+        double phaseStep = 2 * Math.PI * (carrierFrequency / 2.0) / sampleRate;
+        for (int n = startSample; n < endSample; n++) {
+            short value = (short)Math.round(Math.sin(phaseStep * (n - startSample)) * Short.MAX_VALUE);
+            samples[n * CHANNEL_COUNT] = value;
+            samples[n * CHANNEL_COUNT + 1] = (short)-value;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.scn.devicemanagement;
+
+import android.support.annotation.NonNull;
+
+/**
+ * How often a hub has to be resent its current non-zero output values.
+ *
+ * Hubs with a configurable drive watchdog get the watchdog configured on connect and are resent
+ * their values at a safe fraction of the watchdog timeout. Hubs without one keep the fixed resend
+ * interval.
+ */
+
+public final class KeepAlivePolicy {
+
+    //
+    // Constants
+    //
+
+    private static final int WATCHDOG_FRACTION = 3;
+
+    private static final int SBRICK_WATCHDOG_TIMEOUT_MS = 500;
+    private static final int DEFAULT_KEEP_ALIVE_INTERVAL_MS = 60;
+
+    //
+    // Members
+    //
+
+    // Zero if the watchdog of the hub can't be configured
+    public int watchdogTimeoutMs;
+    public int keepAliveIntervalMs;
+
+    //
+    // Constructor
+    //
+
+    public KeepAlivePolicy(int watchdogTimeoutMs, int keepAliveIntervalMs) {
+        this.watchdogTimeoutMs = watchdogTimeoutMs;
+        this.keepAliveIntervalMs = keepAliveIntervalMs;
+    }
+
+    //
+    // API
+    //
+
+    static KeepAlivePolicy getDefault(@NonNull Device.DeviceType deviceType) {
+        switch (deviceType) {
+            case SBRICK:
+                return new KeepAlivePolicy(SBRICK_WATCHDOG_TIMEOUT_MS, SBRICK_WATCHDOG_TIMEOUT_MS / WATCHDOG_FRACTION);
+
+            default:
+                return new KeepAlivePolicy(0, DEFAULT_KEEP_ALIVE_INTERVAL_MS);
+        }
+    }
+
+    boolean hasWatchdog() {
+        return watchdogTimeoutMs > 0;
+    }
+}
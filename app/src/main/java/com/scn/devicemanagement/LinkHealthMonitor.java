@@ -0,0 +1,75 @@
+package com.scn.devicemanagement;
+
+/**
+ * Keeps the recent RSSI readings and write results of a bluetooth link in fixed size ring
+ * buffers, recording a sample does not allocate.
+ */
+
+final class LinkHealthMonitor {
+
+    //
+    // Constants
+    //
+
+    private static final int RSSI_WINDOW_SIZE = 30;
+    private static final int WRITE_WINDOW_SIZE = 64;
+
+    //
+    // Private members
+    //
+
+    private final int rssiValues[] = new int[RSSI_WINDOW_SIZE];
+    private int rssiCount = 0;
+    private int nextRssiIndex = 0;
+
+    private final int writeLatencies[] = new int[WRITE_WINDOW_SIZE];
+    private final int writeStatuses[] = new int[WRITE_WINDOW_SIZE];
+    private int writeCount = 0;
+    private int nextWriteIndex = 0;
+
+    //
+    // API
+    //
+
+    synchronized void reset() {
+        rssiCount = 0;
+        nextRssiIndex = 0;
+        writeCount = 0;
+        nextWriteIndex = 0;
+    }
+
+    synchronized void addRssi(int rssi) {
+        rssiValues[nextRssiIndex] = rssi;
+        nextRssiIndex = (nextRssiIndex + 1) % RSSI_WINDOW_SIZE;
+        if (rssiCount < RSSI_WINDOW_SIZE) rssiCount++;
+    }
+
+    synchronized void addWrite(int latencyMs, int gattStatus) {
+        writeLatencies[nextWriteIndex] = Math.max(0, latencyMs);
+        writeStatuses[nextWriteIndex] = gattStatus;
+        nextWriteIndex = (nextWriteIndex + 1) % WRITE_WINDOW_SIZE;
+        if (writeCount < WRITE_WINDOW_SIZE) writeCount++;
+    }
+
+    synchronized LinkHealthReport createReport(int gattStatus) {
+        return new LinkHealthReport(
+                gattStatus,
+                copyWindow(rssiValues, rssiCount, nextRssiIndex),
+                copyWindow(writeLatencies, writeCount, nextWriteIndex),
+                copyWindow(writeStatuses, writeCount, nextWriteIndex));
+    }
+
+    //
+    // Private methods
+    //
+
+    private static int[] copyWindow(int buffer[], int count, int nextIndex) {
+        int window[] = new int[count];
+        int firstIndex = (nextIndex - count + buffer.length) % buffer.length;
+        for (int i = 0; i < count; i++) {
+            window[i] = buffer[(firstIndex + i) % buffer.length];
+        }
+
+        return window;
+    }
+}
@@ -0,0 +1,73 @@
+package com.scn.devicemanagement;
+
+/**
+ * The recent history of a bluetooth link, attached to the state change of an unexpected
+ * disconnect.
+ *
+ * Weak RSSI before the drop points to range, slow or failing writes with good RSSI to congestion,
+ * a drop with neither to the firmware of the hub. Samples are ordered from the oldest.
+ */
+
+public final class LinkHealthReport {
+
+    //
+    // Members
+    //
+
+    // GATT status of the disconnect
+    public final int gattStatus;
+
+    public final int rssiValues[];
+    public final int writeLatenciesMs[];
+
+    // GATT status of each write, 0 (GATT_SUCCESS) if it has succeeded
+    public final int writeStatuses[];
+
+    //
+    // Constructor
+    //
+
+    LinkHealthReport(int gattStatus, int rssiValues[], int writeLatenciesMs[], int writeStatuses[]) {
+        this.gattStatus = gattStatus;
+        this.rssiValues = rssiValues;
+        this.writeLatenciesMs = writeLatenciesMs;
+        this.writeStatuses = writeStatuses;
+    }
+
+    //
+    // API
+    //
+
+    public int getWriteFailureCount() {
+        int count = 0;
+        for (int writeStatus : writeStatuses) {
+            if (writeStatus != 0) count++;
+        }
+
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        int minRssi = Integer.MAX_VALUE;
+        int rssiSum = 0;
+        for (int rssi : rssiValues) {
+            minRssi = Math.min(minRssi, rssi);
+            rssiSum += rssi;
+        }
+
+        int maxLatency = 0;
+        int latencySum = 0;
+        for (int latency : writeLatenciesMs) {
+            maxLatency = Math.max(maxLatency, latency);
+            latencySum += latency;
+        }
+
+        return "GATT status: " + gattStatus +
+                ", RSSI samples: " + rssiValues.length +
+                (rssiValues.length > 0 ? " (last: " + rssiValues[rssiValues.length - 1] + ", avg: " + rssiSum / rssiValues.length + ", min: " + minRssi + ")" : "") +
+                ", writes: " + writeLatenciesMs.length +
+                (writeLatenciesMs.length > 0 ? " (avg: " + latencySum / writeLatenciesMs.length + " ms, max: " + maxLatency + " ms)" : "") +
+                ", write failures: " + getWriteFailureCount();
+    }
+}
@@ -0,0 +1,358 @@
+package com.scn.devicemanagement;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import com.scn.logger.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Single thread driving the output of every connected device.
+ *
+ * Devices register when they get connected and unregister on disconnect. Each registration
+ * has its own period, the thread only wakes up when a registered device is due and parks
+ * completely when none of them has anything to send.
+ *
+ * Write flow controlled registrations are not paced by a period: the next tick comes as soon as
+ * the previous write has completed (but not sooner than the minimum spacing) or when the write
+ * times out.
+ */
+
+@Singleton
+final class OutputScheduler {
+
+    //
+    // Public types
+    //
+
+    interface OutputSender {
+
+        /**
+         * Called on the output thread when the sender is due.
+         * @return true if the sender has to be called again after its period, false if it
+         * can be parked until the next {@link OutputScheduler#wakeUp(OutputSender)}.
+         */
+        boolean onOutputTick();
+    }
+
+    //
+    // Private members
+    //
+
+    private static final String TAG = OutputScheduler.class.getSimpleName();
+
+    private final List<Registration> registrations = new ArrayList<>();
+    private final Object lock = new Object();
+
+    private Thread outputThread = null;
+
+    //
+    // Constructor
+    //
+
+    @Inject
+    OutputScheduler() {
+        Logger.i(TAG, "constructor...");
+    }
+
+    //
+    // API
+    //
+
+    void register(@NonNull OutputSender sender, int periodMs) {
+        Logger.i(TAG, "register - period: " + periodMs + " ms");
+
+        synchronized (lock) {
+            if (findRegistration(sender) != null) {
+                Logger.i(TAG, "  Already registered.");
+                return;
+            }
+
+            registrations.add(new Registration(sender, periodMs));
+
+            if (outputThread == null) {
+                startOutputThread();
+            }
+        }
+    }
+
+    void registerWriteFlowControlled(@NonNull OutputSender sender, int minSpacingMs, int writeTimeoutMs) {
+        Logger.i(TAG, "registerWriteFlowControlled - min spacing: " + minSpacingMs + " ms, write timeout: " + writeTimeoutMs + " ms");
+
+        synchronized (lock) {
+            if (findRegistration(sender) != null) {
+                Logger.i(TAG, "  Already registered.");
+                return;
+            }
+
+            Registration registration = new Registration(sender, minSpacingMs);
+            registration.isWriteFlowControlled = true;
+            registration.writeTimeoutMs = writeTimeoutMs;
+            registrations.add(registration);
+
+            if (outputThread == null) {
+                startOutputThread();
+            }
+        }
+    }
+
+    void unregister(@NonNull OutputSender sender) {
+        Logger.i(TAG, "unregister...");
+
+        Thread threadToStop = null;
+
+        synchronized (lock) {
+            Registration registration = findRegistration(sender);
+            if (registration == null) {
+                Logger.i(TAG, "  Not registered.");
+                return;
+            }
+
+            registrations.remove(registration);
+
+            if (registrations.isEmpty()) {
+                threadToStop = outputThread;
+                outputThread = null;
+            }
+        }
+
+        if (threadToStop != null) {
+            stopOutputThread(threadToStop);
+        }
+    }
+
+    void wakeUp(@NonNull OutputSender sender) {
+        synchronized (lock) {
+            Registration registration = findRegistration(sender);
+            if (registration == null) {
+                return;
+            }
+
+            // A tick delayed by setNextTickDelay is brought forward to the regular period
+            long regularTickTime = registration.lastTickTime + registration.periodMs;
+            boolean isDelayed = registration.isWritePending
+                    ? registration.nextTickDelayMs > registration.periodMs
+                    : registration.nextTickTime > regularTickTime;
+            if (registration.isDirty && !isDelayed) {
+                return;
+            }
+
+            registration.isDirty = true;
+            if (registration.isWritePending) {
+                registration.nextTickDelayMs = Math.min(registration.nextTickDelayMs, registration.periodMs);
+            }
+            else {
+                registration.nextTickTime = Math.min(registration.nextTickTime, regularTickTime);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Overrides the period for the next tick of the sender. To be called from
+     * {@link OutputSender#onOutputTick()} which then has to return true.
+     */
+    void setNextTickDelay(@NonNull OutputSender sender, int delayMs) {
+        synchronized (lock) {
+            Registration registration = findRegistration(sender);
+            if (registration == null) {
+                return;
+            }
+
+            registration.requestedDelayMs = delayMs;
+        }
+    }
+
+    /**
+     * Changes the period of the sender, for write flow controlled registrations the minimum
+     * spacing of the writes.
+     */
+    void setPeriod(@NonNull OutputSender sender, int periodMs) {
+        Logger.i(TAG, "setPeriod - " + periodMs + " ms");
+
+        synchronized (lock) {
+            Registration registration = findRegistration(sender);
+            if (registration == null) {
+                return;
+            }
+
+            registration.periodMs = periodMs;
+        }
+    }
+
+    void onWriteIssued(@NonNull OutputSender sender) {
+        synchronized (lock) {
+            Registration registration = findRegistration(sender);
+            if (registration == null || !registration.isWriteFlowControlled) {
+                return;
+            }
+
+            registration.isWritePending = true;
+        }
+    }
+
+    void onWriteCompleted(@NonNull OutputSender sender) {
+        synchronized (lock) {
+            Registration registration = findRegistration(sender);
+            if (registration == null || !registration.isWritePending) {
+                return;
+            }
+
+            registration.isWritePending = false;
+            registration.nextTickTime = registration.lastTickTime + registration.nextTickDelayMs;
+            lock.notifyAll();
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private Registration findRegistration(OutputSender sender) {
+        for (int i = 0; i < registrations.size(); i++) {
+            Registration registration = registrations.get(i);
+            if (registration.sender == sender) {
+                return registration;
+            }
+        }
+
+        return null;
+    }
+
+    private void startOutputThread() {
+        Logger.i(TAG, "startOutputThread...");
+
+        outputThread = new Thread(() -> {
+            Logger.i(TAG, "Entering the output thread...");
+
+            // Owned by this thread, a stopping thread may still be ticking while the next one starts
+            final List<Registration> dueRegistrations = new ArrayList<>();
+
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    if (!waitForDueRegistrations(dueRegistrations)) {
+                        break;
+                    }
+
+                    for (int i = 0; i < dueRegistrations.size(); i++) {
+                        Registration registration = dueRegistrations.get(i);
+                        synchronized (lock) {
+                            if (!registrations.contains(registration)) continue;
+                        }
+
+                        long tickTime = SystemClock.uptimeMillis();
+                        boolean isStillDirty = registration.sender.onOutputTick();
+
+                        synchronized (lock) {
+                            registration.lastTickTime = tickTime;
+                            registration.nextTickDelayMs = registration.requestedDelayMs >= 0 ? registration.requestedDelayMs : registration.periodMs;
+                            registration.requestedDelayMs = -1;
+
+                            if (registration.isWritePending) {
+                                registration.nextTickTime = tickTime + Math.max(registration.writeTimeoutMs, registration.nextTickDelayMs);
+                            }
+                            else {
+                                registration.nextTickTime = tickTime + registration.nextTickDelayMs;
+                            }
+                            if (isStillDirty) registration.isDirty = true;
+                        }
+                    }
+
+                    dueRegistrations.clear();
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            Logger.i(TAG, "Exiting from the output thread.");
+        });
+        outputThread.setName("OutputScheduler");
+        outputThread.start();
+    }
+
+    private void stopOutputThread(@NonNull Thread thread) {
+        Logger.i(TAG, "stopOutputThread...");
+
+        thread.interrupt();
+        if (thread != Thread.currentThread()) {
+            try { thread.join(); } catch (InterruptedException ignored) {}
+        }
+    }
+
+    /**
+     * @return false if the calling thread is not the output thread any more.
+     */
+    private boolean waitForDueRegistrations(@NonNull List<Registration> dueRegistrations) throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (outputThread != Thread.currentThread()) {
+                    return false;
+                }
+
+                long now = SystemClock.uptimeMillis();
+                long nextTickTime = Long.MAX_VALUE;
+
+                for (int i = 0; i < registrations.size(); i++) {
+                    Registration registration = registrations.get(i);
+                    if (!registration.isDirty) {
+                        continue;
+                    }
+
+                    if (registration.nextTickTime <= now) {
+                        if (registration.isWritePending) {
+                            Logger.w(TAG, "Write completion timed out.");
+                            registration.isWritePending = false;
+                        }
+
+                        registration.isDirty = false;
+                        dueRegistrations.add(registration);
+                    }
+                    else {
+                        nextTickTime = Math.min(nextTickTime, registration.nextTickTime);
+                    }
+                }
+
+                if (!dueRegistrations.isEmpty()) {
+                    return true;
+                }
+
+                if (nextTickTime == Long.MAX_VALUE) {
+                    lock.wait();
+                }
+                else {
+                    lock.wait(nextTickTime - now);
+                }
+            }
+        }
+    }
+
+    //
+    // Registration
+    //
+
+    private static final class Registration {
+        final OutputSender sender;
+        int periodMs;
+        long nextTickTime = 0;
+        long lastTickTime = 0;
+        boolean isDirty = false;
+
+        boolean isWriteFlowControlled = false;
+        int writeTimeoutMs = 0;
+        boolean isWritePending = false;
+
+        int requestedDelayMs = -1;
+        int nextTickDelayMs = 0;
+
+        Registration(@NonNull OutputSender sender, int periodMs) {
+            this.sender = sender;
+            this.periodMs = periodMs;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.scn.devicemanagement;
+
+import android.support.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free output values of a device.
+ *
+ * The values of all the 4 channels are packed into a single atomic word together with a version
+ * stamp, so the output thread can read a consistent snapshot of the channels with a single read
+ * and can tell by the version whether anything has changed since the last frame.
+ *
+ * Layout: 4 x 9 bits two's complement channel values in the lower 36 bits, the version in the
+ * upper 28 bits.
+ *
+ * Changes are detected in the wire resolution of the device: a new value which quantizes to the
+ * same wire code as the current one is stored without a new version, so it does not cause a send.
+ */
+
+final class OutputState {
+
+    //
+    // Public types
+    //
+
+    interface Quantizer {
+
+        /**
+         * @return the code the value is encoded to on the wire.
+         */
+        int quantize(int value);
+    }
+
+    //
+    // Constants
+    //
+
+    static final int MAX_CHANNELS = 4;
+
+    private static final int CHANNEL_BITS = 9;
+    private static final long CHANNEL_MASK = (1L << CHANNEL_BITS) - 1;
+    private static final int VERSION_SHIFT = CHANNEL_BITS * MAX_CHANNELS;
+    private static final long VALUES_MASK = (1L << VERSION_SHIFT) - 1;
+
+    //
+    // Private members
+    //
+
+    private final AtomicLong state = new AtomicLong(0);
+    private final AtomicInteger savedSendCount = new AtomicInteger(0);
+
+    //
+    // API
+    //
+
+    int get(int channel) {
+        return getValue(state.get(), channel);
+    }
+
+    /**
+     * @return true if the wire code of the channel has changed.
+     */
+    boolean set(int channel, int value, @NonNull Quantizer quantizer) {
+        while (true) {
+            long current = state.get();
+            int currentValue = getValue(current, channel);
+            if (currentValue == value) {
+                return false;
+            }
+
+            boolean isWireChange = quantizer.quantize(currentValue) != quantizer.quantize(value);
+
+            int shift = channel * CHANNEL_BITS;
+            long values = (current & VALUES_MASK & ~(CHANNEL_MASK << shift)) | ((value & CHANNEL_MASK) << shift);
+            long version = isWireChange ? nextVersion(current) : (current & ~VALUES_MASK);
+            if (state.compareAndSet(current, version | values)) {
+                if (!isWireChange) savedSendCount.incrementAndGet();
+                return isWireChange;
+            }
+        }
+    }
+
+    /**
+     * Sets all the channels to zero and forces a new version even if they have already been zero.
+     */
+    void reset() {
+        while (true) {
+            long current = state.get();
+            if (state.compareAndSet(current, nextVersion(current))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forces a new version with the current values, so they are sent again.
+     */
+    void invalidate() {
+        while (true) {
+            long current = state.get();
+            if (state.compareAndSet(current, nextVersion(current) | (current & VALUES_MASK))) {
+                return;
+            }
+        }
+    }
+
+    long snapshot() {
+        return state.get();
+    }
+
+    /**
+     * @return the number of value changes which have not caused a send since they encode to the
+     * same wire code.
+     */
+    int getSavedSendCount() {
+        return savedSendCount.get();
+    }
+
+    static int getValue(long snapshot, int channel) {
+        int bits = (int)((snapshot >>> (channel * CHANNEL_BITS)) & CHANNEL_MASK);
+        return (bits << (32 - CHANNEL_BITS)) >> (32 - CHANNEL_BITS);
+    }
+
+    static int getVersion(long snapshot) {
+        return (int)(snapshot >>> VERSION_SHIFT);
+    }
+
+    static boolean isAllZero(long snapshot, @NonNull Quantizer quantizer) {
+        int zeroCode = quantizer.quantize(0);
+        for (int channel = 0; channel < MAX_CHANNELS; channel++) {
+            if (quantizer.quantize(getValue(snapshot, channel)) != zeroCode) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    //
+    // Private methods
+    //
+
+    private static long nextVersion(long snapshot) {
+        return (snapshot + (1L << VERSION_SHIFT)) & ~VALUES_MASK;
+    }
+}
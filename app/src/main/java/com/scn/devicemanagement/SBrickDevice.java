@@ -5,8 +5,11 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import com.google.gson.Gson;
 import com.scn.logger.Logger;
 
+import java.util.UUID;
+
 /**
  * Created by steve on 2017. 03. 18..
  */
@@ -21,30 +24,50 @@ final class SBrickDevice extends BluetoothDevice {
     private static final String TAG = SBrickDevice.class.getSimpleName();
 
     // Service UUIDs
-    private static final String SERVICE_UUID_REMOTE_CONTROL = "4dc591b0-857c-41de-b5f1-15abda665b0c";
+    private static final UUID SERVICE_UUID_REMOTE_CONTROL = UUID.fromString("4dc591b0-857c-41de-b5f1-15abda665b0c");
 
     // Characteristic UUIDs
-    private static final String CHARACTERISTIC_UUID_QUICK_DRIVE = "489a6ae0-c1ab-4c9c-bdb2-11d373c1b7fb";
+    private static final UUID CHARACTERISTIC_UUID_QUICK_DRIVE = UUID.fromString("489a6ae0-c1ab-4c9c-bdb2-11d373c1b7fb");
+    private static final UUID CHARACTERISTIC_UUID_REMOTE_CONTROL_COMMANDS = UUID.fromString("02b8cbcc-0e25-4bda-8790-a15f53e6010f");
+
+    // Remote control commands
+    private static final byte COMMAND_SET_WATCHDOG_TIMEOUT = 0x0D;
+    private static final int WATCHDOG_TIMEOUT_UNIT_MS = 100;
+    private static final byte COMMAND_QUERY_ADC = 0x0F;
+
+    // ADC channels, the result is read back from the remote control commands characteristic
+    private static final byte ADC_CHANNEL_BATTERY_VOLTAGE = 0x08;
+    private static final byte ADC_CHANNEL_TEMPERATURE = 0x0E;
+    private static final float ADC_VOLTAGE_SCALE = 0.83875f / 2047.0f;
+    private static final float ADC_TEMPERATURE_SCALE = 1.0f / 118.85795f;
+    private static final float ADC_TEMPERATURE_OFFSET = -160.0f;
+
+    // Voltage and temperature are queried in turns
+    private static final int TELEMETRY_POLL_INTERVAL_MS = 500;
 
     private BluetoothGattCharacteristic quickDriveCharacteristic;
+    private BluetoothGattCharacteristic remoteControlCommandsCharacteristic;
 
-    private Thread outputThread = null;
-    private final Object outputThreadLock = new Object();
+    private volatile SBrickData sbrickData = null;
+    private volatile boolean watchdogConfigPending = false;
 
-    private final int[] outputValues = new int[4];
+    // The first poll switches to the battery voltage
+    private final byte adcQueryBuffer[] = new byte[] { COMMAND_QUERY_ADC, ADC_CHANNEL_TEMPERATURE };
+    private volatile byte queriedAdcChannel = ADC_CHANNEL_TEMPERATURE;
 
-    private static final int MaxSendAttempts = 4;
-    private int sendAttemptsLeft = 0;
+    private final SBrickFrameEncoder frameEncoder = new SBrickFrameEncoder();
 
     //
     // Constructor
     //
 
-    SBrickDevice(@NonNull Context context, @NonNull String name, @NonNull String address, @NonNull BluetoothDeviceManager bluetoothDeviceManager) {
+    SBrickDevice(@NonNull Context context, @NonNull String name, @NonNull String address, String deviceSpecificDataJSon, @NonNull BluetoothDeviceManager bluetoothDeviceManager) {
         super(context, name, address, bluetoothDeviceManager);
         Logger.i(TAG, "constructor...");
         Logger.i(TAG, "  name: " + name);
         Logger.i(TAG, "  address: " + address);
+
+        setDeviceSpecificDataJSon(deviceSpecificDataJSon);
     }
 
     //
@@ -55,28 +78,48 @@ final class SBrickDevice extends BluetoothDevice {
     public DeviceType getType() { return DeviceType.SBRICK; }
 
     @Override
-    public int getNumberOfChannels() {
-        return 4;
+    public String getDeviceSpecificDataJSon() {
+        Logger.i(TAG, "getDeviceSpecificDataJSon...");
+        return new Gson().toJson(sbrickData);
     }
 
     @Override
-    public int getOutput(int channel) {
-        checkChannel(channel);
-        return outputValues[channel];
+    public void setDeviceSpecificDataJSon(String deviceSpecificDataJSon) {
+        Logger.i(TAG, "setDeviceSpecificDataJSon - " + deviceSpecificDataJSon);
+
+        // Published in one step, the output thread reads it
+        SBrickData data = null;
+        if (deviceSpecificDataJSon != null) data = new Gson().fromJson(deviceSpecificDataJSon, SBrickData.class);
+        if (data == null) data = new SBrickData();
+        if (data.keepAlivePolicy == null) data.keepAlivePolicy = KeepAlivePolicy.getDefault(getType());
+        sbrickData = data;
+        watchdogConfigPending = true;
+        wakeUpOutput();
     }
 
     @Override
-    public void setOutput(int channel, int value) {
-        //Logger.i(TAG, "setOutput - channel: " + channel + ", value: " + value);
-        checkChannel(channel);
-        value = limitOutputValue(value);
+    public KeepAlivePolicy getKeepAlivePolicy() {
+        return sbrickData.keepAlivePolicy;
+    }
 
-        if (outputValues[channel] == value) {
-            return;
+    @Override
+    public boolean isTelemetrySupported() {
+        return true;
+    }
+
+    //
+    // OutputScheduler.OutputSender overrides
+    //
+
+    @Override
+    public boolean onOutputTick() {
+        // Queued ahead of the drive frame of the same tick
+        if (watchdogConfigPending) {
+            watchdogConfigPending = false;
+            sendWatchdogTimeout(sbrickData.keepAlivePolicy);
         }
 
-        outputValues[channel] = value;
-        sendAttemptsLeft = MaxSendAttempts;
+        return super.onOutputTick();
     }
 
     //
@@ -93,13 +136,39 @@ final class SBrickDevice extends BluetoothDevice {
             return false;
         }
 
-        startOutputThread();
+        remoteControlCommandsCharacteristic = getGattCharacteristic(gatt, SERVICE_UUID_REMOTE_CONTROL, CHARACTERISTIC_UUID_REMOTE_CONTROL_COMMANDS);
+        if (remoteControlCommandsCharacteristic == null) {
+            Logger.w(TAG, "  Could not get remote control commands characteristic, the watchdog can't be configured.");
+        }
+
+        watchdogConfigPending = true;
+        resetOutputs();
         return true;
     }
 
     @Override
     protected boolean onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
         Logger.i(TAG, "onCharacteristicRead - device: " + SBrickDevice.this);
+
+        if (characteristic != remoteControlCommandsCharacteristic) {
+            return true;
+        }
+
+        byte[] value = characteristic.getValue();
+        if (value == null || value.length < 2) {
+            return false;
+        }
+
+        int adcValue = (value[0] & 0xff) | ((value[1] & 0xff) << 8);
+
+        TelemetryRecorder telemetryRecorder = getTelemetryRecorder();
+        if (queriedAdcChannel == ADC_CHANNEL_BATTERY_VOLTAGE) {
+            telemetryRecorder.setBatteryVoltage(adcValue * ADC_VOLTAGE_SCALE);
+        }
+        else {
+            telemetryRecorder.setTemperature(adcValue * ADC_TEMPERATURE_SCALE + ADC_TEMPERATURE_OFFSET);
+        }
+        telemetryRecorder.commit();
         return true;
     }
 
@@ -109,111 +178,87 @@ final class SBrickDevice extends BluetoothDevice {
         return true;
     }
 
+    @Override
+    protected int getTelemetryPollIntervalMs() {
+        return remoteControlCommandsCharacteristic != null ? TELEMETRY_POLL_INTERVAL_MS : 0;
+    }
+
+    @Override
+    protected void onTelemetryPoll() {
+        // The next poll comes long after the read has completed, the channel can be switched
+        byte adcChannel = queriedAdcChannel == ADC_CHANNEL_BATTERY_VOLTAGE ? ADC_CHANNEL_TEMPERATURE : ADC_CHANNEL_BATTERY_VOLTAGE;
+        queriedAdcChannel = adcChannel;
+        adcQueryBuffer[1] = adcChannel;
+
+        remoteControlCommandsCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        if (!writeConfig(remoteControlCommandsCharacteristic, adcQueryBuffer) || !readCharacteristic(remoteControlCommandsCharacteristic)) {
+            Logger.w(TAG, "  Failed to query ADC.");
+        }
+    }
+
+    @Override
+    protected FrameEncoder getFrameEncoder() {
+        return frameEncoder;
+    }
+
     @Override
     protected void disconnectInternal() {
         Logger.i(TAG, "disconnectInternal - device: " + SBrickDevice.this);
-        Logger.i(TAG, "  Stopping output thread...");
-        stopOutputThread();
     }
 
     //
     // Private methods
     //
 
-    private void startOutputThread() {
-        Logger.i(TAG, "startOutputThread - device: " + this);
-
-        synchronized (outputThreadLock) {
-            stopOutputThread();
-
-            outputValues[0] = 0;
-            outputValues[1] = 0;
-            outputValues[2] = 0;
-            outputValues[3] = 0;
-            sendAttemptsLeft = MaxSendAttempts;
-
-            outputThread = new Thread(() -> {
-                Logger.i(TAG, "Entering the output thread - device: " + SBrickDevice.this);
-
-                while (!Thread.currentThread().isInterrupted()) {
-                    if (sendAttemptsLeft > 0) {
-                        int value0 = outputValues[0];
-                        int value1 = outputValues[1];
-                        int value2 = outputValues[2];
-                        int value3 = outputValues[3];
-
-                        if (sendOutputValues(value0, value1, value2, value3)) {
-                            if (value0 != 0 || value1 != 0 || value2 != 0 || value3 != 0) {
-                                sendAttemptsLeft = MaxSendAttempts;
-                            }
-                            else {
-                                Logger.i(TAG, "All outputs zero, send attempts left: " + sendAttemptsLeft);
-                                sendAttemptsLeft--;
-                            }
-                        }
-                        else {
-                            sendAttemptsLeft = MaxSendAttempts;
-                        }
-                    }
-
-                    try {
-                        Thread.sleep(60);
-                    }
-                    catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-
-                Logger.i(TAG, "Exiting from output thread - device: " + SBrickDevice.this);
-            });
-            outputThread.start();
-        }
-    }
-
-    private void stopOutputThread() {
-        Logger.i(TAG, "stopOtuputThread...");
+    @Override
+    protected boolean sendOutputValues(int v0, int v1, int v2, int v3) {
+        try {
+            frameEncoder.encode(v0, v1, v2, v3);
 
-        synchronized (outputThreadLock) {
-            if (outputThread == null) {
-                Logger.i(TAG, "  Output thread is already null.");
-                return;
+            if (writeDriveFrame(quickDriveCharacteristic, frameEncoder.getBuffer())) {
+                return true;
             }
-
-            if (!outputThread.isInterrupted()) {
-                Logger.i(TAG, "  Interrupting the output thread...");
-                outputThread.interrupt();
-                try { outputThread.join(); } catch (InterruptedException ignored) {}
+            else {
+                Logger.w(TAG, "  Failed to write remote control characteristic.");
             }
-
-            outputThread = null;
         }
+        catch (Exception e) {
+            Logger.w(TAG, "Failed to send output values to characteristic.");
+        }
+
+        return false;
     }
 
-    private boolean sendOutputValues(int v0, int v1, int v2, int v3) {
+    private boolean sendWatchdogTimeout(@NonNull KeepAlivePolicy keepAlivePolicy) {
+        Logger.i(TAG, "sendWatchdogTimeout - " + keepAlivePolicy.watchdogTimeoutMs + " ms");
+
+        if (remoteControlCommandsCharacteristic == null || !keepAlivePolicy.hasWatchdog()) {
+            return false;
+        }
+
         try {
-            byte[] buffer = new byte[] {
-                    (byte)((Math.abs(v0) & 0xfe) | 0x02 | (v0 < 0 ? 1 : 0)),
-                    (byte)((Math.abs(v1) & 0xfe) | 0x02 | (v1 < 0 ? 1 : 0)),
-                    (byte)((Math.abs(v2) & 0xfe) | 0x02 | (v2 < 0 ? 1 : 0)),
-                    (byte)((Math.abs(v3) & 0xfe) | 0x02 | (v3 < 0 ? 1 : 0))
-            };
-
-            if (quickDriveCharacteristic.setValue(buffer)) {
-                if (bluetoothGatt.writeCharacteristic(quickDriveCharacteristic)) {
-                    return true;
-                }
-                else {
-                    Logger.w(TAG, "  Failed to write remote control characteristic.");
-                }
+            int timeout = Math.max(1, Math.min(255, keepAlivePolicy.watchdogTimeoutMs / WATCHDOG_TIMEOUT_UNIT_MS));
+
+            remoteControlCommandsCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            if (writeConfig(remoteControlCommandsCharacteristic, new byte[] { COMMAND_SET_WATCHDOG_TIMEOUT, (byte)timeout })) {
+                return true;
             }
             else {
-                Logger.w(TAG, "  Failed to set value on remote control characteristic.");
+                Logger.w(TAG, "  Failed to write remote control commands characteristic.");
             }
         }
         catch (Exception e) {
-            Logger.w(TAG, "Failed to send output values to characteristic.");
+            Logger.w(TAG, "Failed to send watchdog timeout to characteristic.");
         }
 
         return false;
     }
+
+    //
+    // DeviceSpacificData
+    //
+
+    public static class SBrickData {
+        public KeepAlivePolicy keepAlivePolicy;
+    }
 }
@@ -0,0 +1,41 @@
+package com.scn.devicemanagement;
+
+final class SBrickFrameEncoder implements FrameEncoder {
+
+    //
+    // Private members
+    //
+
+    private final byte[] buffer = new byte[4];
+
+    //
+    // FrameEncoder overrides
+    //
+
+    @Override
+    public int encode(int v0, int v1, int v2, int v3) {
+        buffer[0] = encodeValue(v0);
+        buffer[1] = encodeValue(v1);
+        buffer[2] = encodeValue(v2);
+        buffer[3] = encodeValue(v3);
+        return buffer.length;
+    }
+
+    @Override
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    @Override
+    public int quantize(int value) {
+        return encodeValue(value) & 0xff;
+    }
+
+    //
+    // Private methods
+    //
+
+    private static byte encodeValue(int value) {
+        return (byte)((Math.abs(value) & 0xfe) | 0x02 | (value < 0 ? 1 : 0));
+    }
+}
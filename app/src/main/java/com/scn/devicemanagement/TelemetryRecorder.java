@@ -0,0 +1,141 @@
+package com.scn.devicemanagement;
+
+import android.arch.lifecycle.MutableLiveData;
+import android.support.annotation.NonNull;
+
+/**
+ * Collects the telemetry values parsed from the notifications and reads of a hub.
+ *
+ * The values are kept in primitive fields, updating them does not allocate. A snapshot is
+ * published to the live data at most every PUBLISH_INTERVAL_MS, not for every packet. A packet
+ * arriving sooner is published when the interval is over, the last values are never held back.
+ */
+
+final class TelemetryRecorder {
+
+    //
+    // Public types
+    //
+
+    // Time source and the delayed run of the trailing publish
+    interface Scheduler {
+        long uptimeMillis();
+        void postDelayed(@NonNull Runnable runnable, long delayMs);
+    }
+
+    //
+    // Constants
+    //
+
+    static final int MAX_MOTOR_CHANNELS = 4;
+
+    private static final int PUBLISH_INTERVAL_MS = 500;
+
+    //
+    // Private members
+    //
+
+    private final MutableLiveData<DeviceTelemetry> telemetryLiveData;
+    private final Scheduler scheduler;
+    private final Runnable trailingPublishRunnable = this::publishTrailing;
+
+    private float batteryVoltage = Float.NaN;
+    private float lowestBatteryVoltage = Float.NaN;
+    private float temperature = Float.NaN;
+    private final float motorCurrents[] = new float[MAX_MOTOR_CHANNELS];
+    private int numMotorCurrents = 0;
+
+    private boolean isPublished = false;
+    private long lastPublishTime = 0;
+    private boolean isTrailingPublishScheduled = false;
+
+    //
+    // Constructor
+    //
+
+    TelemetryRecorder(@NonNull MutableLiveData<DeviceTelemetry> telemetryLiveData, @NonNull Scheduler scheduler) {
+        this.telemetryLiveData = telemetryLiveData;
+        this.scheduler = scheduler;
+    }
+
+    //
+    // API
+    //
+
+    synchronized void reset() {
+        batteryVoltage = Float.NaN;
+        lowestBatteryVoltage = Float.NaN;
+        temperature = Float.NaN;
+        numMotorCurrents = 0;
+        isPublished = false;
+        lastPublishTime = 0;
+        isTrailingPublishScheduled = false;
+    }
+
+    synchronized void setBatteryVoltage(float batteryVoltage) {
+        this.batteryVoltage = batteryVoltage;
+        if (Float.isNaN(lowestBatteryVoltage) || batteryVoltage < lowestBatteryVoltage) {
+            lowestBatteryVoltage = batteryVoltage;
+        }
+    }
+
+    synchronized void setTemperature(float temperature) {
+        this.temperature = temperature;
+    }
+
+    synchronized void setMotorCurrent(int channel, float current) {
+        if (channel < 0 || MAX_MOTOR_CHANNELS <= channel) {
+            return;
+        }
+
+        motorCurrents[channel] = current;
+        numMotorCurrents = Math.max(numMotorCurrents, channel + 1);
+    }
+
+    /**
+     * To be called after the values of a packet have been set, publishes them if the last
+     * publish is old enough, otherwise schedules a publish for the end of the interval.
+     */
+    synchronized void commit() {
+        long now = scheduler.uptimeMillis();
+        long waitMs = isPublished ? lastPublishTime + PUBLISH_INTERVAL_MS - now : 0;
+        if (waitMs <= 0) {
+            publish(now);
+            return;
+        }
+
+        if (!isTrailingPublishScheduled) {
+            isTrailingPublishScheduled = true;
+            scheduler.postDelayed(trailingPublishRunnable, waitMs);
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private synchronized void publishTrailing() {
+        // Already published by a later commit or dropped by a reset
+        if (!isTrailingPublishScheduled) {
+            return;
+        }
+
+        long now = scheduler.uptimeMillis();
+        if (now - lastPublishTime < PUBLISH_INTERVAL_MS) {
+            scheduler.postDelayed(trailingPublishRunnable, lastPublishTime + PUBLISH_INTERVAL_MS - now);
+            return;
+        }
+
+        publish(now);
+    }
+
+    private void publish(long now) {
+        isPublished = true;
+        lastPublishTime = now;
+        isTrailingPublishScheduled = false;
+
+        float currents[] = new float[numMotorCurrents];
+        System.arraycopy(motorCurrents, 0, currents, 0, numMotorCurrents);
+        telemetryLiveData.postValue(new DeviceTelemetry(batteryVoltage, lowestBatteryVoltage, temperature, currents));
+    }
+}
@@ -1,5 +1,7 @@
 package com.scn.ui.controller;
 
+import android.content.Context;
+import android.hardware.input.InputManager;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -7,6 +9,7 @@ import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.Toolbar;
+import android.util.SparseArray;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -41,6 +44,12 @@ public class ControllerActivity extends BaseActivity {
     ControllerViewModel viewModel;
     @Inject ControllerAdapter controllerAdapter;
 
+    private InputManager inputManager;
+
+    // Mapped axes the input device has, per input device id
+    private final SparseArray<int[]> deviceMotionCodes = new SparseArray<>();
+    private int[] deviceMotionCodesSource = null;
+
     @BindView(R.id.toolbar) Toolbar toolbar;
     @BindView(R.id.creation_name) TextView creationNameTextView;
     @BindView(R.id.recyclerview) RecyclerView recyclerView;
@@ -63,6 +72,30 @@ public class ControllerActivity extends BaseActivity {
         setupRecyclerView();
 
         creationNameTextView.setText(viewModel.getCreation().getName());
+
+        inputManager = (InputManager)getSystemService(Context.INPUT_SERVICE);
+    }
+
+    @Override
+    protected void onResume() {
+        Logger.i(TAG, "onResume...");
+        super.onResume();
+
+        viewModel.setHighLinkPriority(true);
+
+        // Gamepads may have been plugged in or out while paused
+        deviceMotionCodes.clear();
+        inputManager.registerInputDeviceListener(inputDeviceListener, null);
+    }
+
+    @Override
+    protected void onPause() {
+        Logger.i(TAG, "onPause...");
+        super.onPause();
+
+        viewModel.setHighLinkPriority(false);
+
+        inputManager.unregisterInputDeviceListener(inputDeviceListener);
     }
 
     @Override
@@ -116,11 +149,12 @@ public class ControllerActivity extends BaseActivity {
         if ((event.getSource() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK && event.getAction() == MotionEvent.ACTION_MOVE) {
             viewModel.beginControllerActions();
 
-            for (int motionCode = 0; motionCode < 64; motionCode++) {
-                int axisValue = (int)(event.getAxisValue(motionCode) * 255);
-
-                if (Math.abs(axisValue) < 10) axisValue = 0;
-
+            // Only the axes the gamepad has and the selected profile maps are read
+            int[] motionCodes = getDeviceMotionCodes(event.getDevice());
+            for (int i = 0; i < motionCodes.length; i++) {
+                int motionCode = motionCodes[i];
+                // The dead zone and the response curve are applied per action by the dispatcher
+                int axisValue = Math.round(Math.max(-1f, Math.min(1f, event.getAxisValue(motionCode))) * 255);
                 viewModel.motionAction(motionCode, axisValue);
             }
 
@@ -135,6 +169,54 @@ public class ControllerActivity extends BaseActivity {
     // Private methods
     //
 
+    private int[] getDeviceMotionCodes(InputDevice inputDevice) {
+        int[] mappedMotionCodes = viewModel.getMappedMotionCodes();
+        if (inputDevice == null) {
+            return mappedMotionCodes;
+        }
+
+        // A newly selected profile maps other axes
+        if (mappedMotionCodes != deviceMotionCodesSource) {
+            deviceMotionCodes.clear();
+            deviceMotionCodesSource = mappedMotionCodes;
+        }
+
+        int[] motionCodes = deviceMotionCodes.get(inputDevice.getId());
+        if (motionCodes == null) {
+            int count = 0;
+            int[] buffer = new int[mappedMotionCodes.length];
+            for (int motionCode : mappedMotionCodes) {
+                if (inputDevice.getMotionRange(motionCode, InputDevice.SOURCE_JOYSTICK) != null) {
+                    buffer[count++] = motionCode;
+                }
+            }
+
+            motionCodes = new int[count];
+            System.arraycopy(buffer, 0, motionCodes, 0, count);
+            deviceMotionCodes.put(inputDevice.getId(), motionCodes);
+            Logger.i(TAG, "Input device " + inputDevice.getName() + " has " + count + " of " + mappedMotionCodes.length + " mapped axes.");
+        }
+
+        return motionCodes;
+    }
+
+    private final InputManager.InputDeviceListener inputDeviceListener = new InputManager.InputDeviceListener() {
+        @Override
+        public void onInputDeviceAdded(int deviceId) {
+            deviceMotionCodes.remove(deviceId);
+        }
+
+        @Override
+        public void onInputDeviceRemoved(int deviceId) {
+            deviceMotionCodes.remove(deviceId);
+        }
+
+        @Override
+        public void onInputDeviceChanged(int deviceId) {
+            deviceMotionCodes.remove(deviceId);
+        }
+    };
+
     private void setupViewModel(@NonNull String creationName) {
         viewModel = getViewModel(ControllerViewModel.class);
         viewModel.initialize(creationName);
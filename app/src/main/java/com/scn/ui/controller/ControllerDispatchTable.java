@@ -0,0 +1,251 @@
+package com.scn.ui.controller;
+
+import android.support.annotation.NonNull;
+import android.view.KeyEvent;
+
+import com.scn.creationmanagement.ControllerAction;
+import com.scn.creationmanagement.ControllerEvent;
+import com.scn.creationmanagement.ControllerProfile;
+import com.scn.devicemanagement.Device;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Controller profile compiled for dispatching the controller events.
+ *
+ * The actions are stored in flat arrays, grouped by event: the actions of key code k are at
+ * [keyActionStarts[k], keyActionStarts[k + 1]), the actions of the i-th mapped axis at
+ * [motionActionStarts[i], motionActionStarts[i + 1]). The devices are resolved to slots, a
+ * missing device has a null slot. The table is immutable, it has to be compiled again when the
+ * profile or the available devices change.
+ *
+ * The dead zone, expo and max output of an action are compiled into a response curve of
+ * RESPONSE_CURVE_SIZE entries indexed by the controller value, actions with the same settings share
+ * the curve.
+ */
+
+final class ControllerDispatchTable {
+
+    //
+    // Constants
+    //
+
+    static final int MAX_MOTION_CODE = 64;
+
+    static final int RESPONSE_CURVE_SIZE = 256;
+
+    private static final int MAX_DEAD_ZONE = 90;
+
+    //
+    // Members
+    //
+
+    final Device devices[];
+
+    // Outputs of the devices are indexed by slot * channelsPerSlot + channel
+    final int channelsPerSlot;
+
+    final int keyActionStarts[];
+
+    // Axis codes with at least one action
+    final int mappedMotionCodes[];
+    final int motionActionStarts[];
+
+    // Index into mappedMotionCodes per axis code, -1 if the axis is not mapped
+    final int motionCodeIndices[];
+
+    final int actionDeviceSlots[];
+    final int actionChannels[];
+    final boolean actionIsToggles[];
+
+    // Output per controller value (0..255), negative if the action is inverted
+    final int actionResponseCurves[][];
+
+    // Controller value change below which an axis sample is ignored, 0 if not filtered
+    final int actionHysteresis[];
+
+    //
+    // Constructor
+    //
+
+    private ControllerDispatchTable(Device devices[], int channelsPerSlot, int keyActionStarts[], int mappedMotionCodes[], int motionActionStarts[], int motionCodeIndices[], int numActions) {
+        this.devices = devices;
+        this.channelsPerSlot = channelsPerSlot;
+        this.keyActionStarts = keyActionStarts;
+        this.mappedMotionCodes = mappedMotionCodes;
+        this.motionActionStarts = motionActionStarts;
+        this.motionCodeIndices = motionCodeIndices;
+        this.actionDeviceSlots = new int[numActions];
+        this.actionChannels = new int[numActions];
+        this.actionIsToggles = new boolean[numActions];
+        this.actionResponseCurves = new int[numActions][];
+        this.actionHysteresis = new int[numActions];
+    }
+
+    //
+    // API
+    //
+
+    static ControllerDispatchTable compile(@NonNull ControllerProfile controllerProfile, @NonNull Map<String, Device> deviceMap) {
+        int maxKeyCode = KeyEvent.getMaxKeyCode();
+        int keyActionCounts[] = new int[maxKeyCode + 1];
+        int motionActionCounts[] = new int[MAX_MOTION_CODE];
+        List<String> deviceIds = new ArrayList<>();
+        int channelsPerSlot = 1;
+
+        // First pass: counting the actions per event code and collecting the devices
+        for (ControllerEvent controllerEvent : controllerProfile.getControllerEvents()) {
+            int eventCode = controllerEvent.getEventCode();
+            int numActions = controllerEvent.getControllerActions().size();
+
+            if (controllerEvent.getEventType() == ControllerEvent.ControllerEventType.KEY) {
+                if (0 <= eventCode && eventCode <= maxKeyCode) keyActionCounts[eventCode] += numActions;
+            }
+            else {
+                if (0 <= eventCode && eventCode < MAX_MOTION_CODE) motionActionCounts[eventCode] += numActions;
+            }
+
+            for (ControllerAction controllerAction : controllerEvent.getControllerActions()) {
+                if (!deviceIds.contains(controllerAction.getDeviceId())) deviceIds.add(controllerAction.getDeviceId());
+                channelsPerSlot = Math.max(channelsPerSlot, controllerAction.getChannel() + 1);
+            }
+        }
+
+        Device devices[] = new Device[deviceIds.size()];
+        for (int i = 0; i < devices.length; i++) {
+            devices[i] = deviceMap.get(deviceIds.get(i));
+        }
+
+        int keyActionStarts[] = new int[maxKeyCode + 2];
+        for (int keyCode = 0; keyCode <= maxKeyCode; keyCode++) {
+            keyActionStarts[keyCode + 1] = keyActionStarts[keyCode] + keyActionCounts[keyCode];
+        }
+
+        int numMappedMotionCodes = 0;
+        for (int motionCode = 0; motionCode < MAX_MOTION_CODE; motionCode++) {
+            if (motionActionCounts[motionCode] > 0) numMappedMotionCodes++;
+        }
+
+        int mappedMotionCodes[] = new int[numMappedMotionCodes];
+        int motionActionStarts[] = new int[numMappedMotionCodes + 1];
+        int motionIndices[] = new int[MAX_MOTION_CODE];
+        Arrays.fill(motionIndices, -1);
+        motionActionStarts[0] = keyActionStarts[maxKeyCode + 1];
+        for (int motionCode = 0, index = 0; motionCode < MAX_MOTION_CODE; motionCode++) {
+            if (motionActionCounts[motionCode] == 0) continue;
+
+            mappedMotionCodes[index] = motionCode;
+            motionIndices[motionCode] = index;
+            motionActionStarts[index + 1] = motionActionStarts[index] + motionActionCounts[motionCode];
+            index++;
+        }
+
+        int numActions = motionActionStarts[numMappedMotionCodes];
+        ControllerDispatchTable table = new ControllerDispatchTable(devices, channelsPerSlot, keyActionStarts, mappedMotionCodes, motionActionStarts, motionIndices, numActions);
+
+        // Second pass: filling in the actions
+        Map<Long, int[]> responseCurves = new HashMap<>();
+        int keyActionNext[] = new int[maxKeyCode + 1];
+        int motionActionNext[] = new int[numMappedMotionCodes];
+        for (ControllerEvent controllerEvent : controllerProfile.getControllerEvents()) {
+            int eventCode = controllerEvent.getEventCode();
+
+            for (ControllerAction controllerAction : controllerEvent.getControllerActions()) {
+                int actionIndex;
+                if (controllerEvent.getEventType() == ControllerEvent.ControllerEventType.KEY) {
+                    if (eventCode < 0 || maxKeyCode < eventCode) continue;
+                    actionIndex = keyActionStarts[eventCode] + keyActionNext[eventCode]++;
+                }
+                else {
+                    if (eventCode < 0 || MAX_MOTION_CODE <= eventCode) continue;
+                    int motionIndex = motionIndices[eventCode];
+                    actionIndex = motionActionStarts[motionIndex] + motionActionNext[motionIndex]++;
+                }
+
+                table.actionDeviceSlots[actionIndex] = deviceIds.indexOf(controllerAction.getDeviceId());
+                table.actionChannels[actionIndex] = controllerAction.getChannel();
+                table.actionIsToggles[actionIndex] = controllerAction.getIsToggle();
+
+                // Settings of the response curves for buttons are ignored, they only send 0 and 255
+                boolean isKey = controllerEvent.getEventType() == ControllerEvent.ControllerEventType.KEY;
+                int deadZone = isKey ? 0 : Math.max(0, Math.min(MAX_DEAD_ZONE, controllerAction.getDeadZone()));
+                int expo = isKey ? 0 : Math.max(0, Math.min(100, controllerAction.getExpo()));
+                int scale = controllerAction.getIsInvert() ? -controllerAction.getMaxOutput() : controllerAction.getMaxOutput();
+
+                long curveKey = ((long)deadZone << 40) | ((long)expo << 32) | (scale & 0xffffffffL);
+                int responseCurve[] = responseCurves.get(curveKey);
+                if (responseCurve == null) {
+                    responseCurve = createResponseCurve(deadZone, expo, scale);
+                    responseCurves.put(curveKey, responseCurve);
+                }
+
+                table.actionResponseCurves[actionIndex] = responseCurve;
+                table.actionHysteresis[actionIndex] = isKey ? 0 : Math.max(0, controllerAction.getFilter()) * 255 / 100;
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * @return the index of the first action of the key code, the actions last until
+     * {@link #getKeyActionEnd(int)}.
+     */
+    int getKeyActionStart(int keyCode) {
+        return (0 <= keyCode && keyCode < keyActionStarts.length - 1) ? keyActionStarts[keyCode] : 0;
+    }
+
+    int getKeyActionEnd(int keyCode) {
+        return (0 <= keyCode && keyCode < keyActionStarts.length - 1) ? keyActionStarts[keyCode + 1] : 0;
+    }
+
+    /**
+     * @return the index of the axis in {@link #mappedMotionCodes}, -1 if it has no actions.
+     */
+    int getMotionIndex(int motionCode) {
+        return (0 <= motionCode && motionCode < MAX_MOTION_CODE) ? motionCodeIndices[motionCode] : -1;
+    }
+
+    int getNumberOfActions() {
+        return actionChannels.length;
+    }
+
+    int getNumberOfOutputs() {
+        return devices.length * channelsPerSlot;
+    }
+
+    int getOutputIndex(int actionIndex) {
+        return actionDeviceSlots[actionIndex] * channelsPerSlot + actionChannels[actionIndex];
+    }
+
+    /**
+     * @return the output value of the action for the controller value (-255..255).
+     */
+    int getOutputValue(int actionIndex, int value) {
+        int responseCurve[] = actionResponseCurves[actionIndex];
+        return 0 <= value ? responseCurve[value] : -responseCurve[-value];
+    }
+
+    //
+    // Private methods
+    //
+
+    private static int[] createResponseCurve(int deadZone, int expo, int scale) {
+        int responseCurve[] = new int[RESPONSE_CURVE_SIZE];
+        int maxValue = RESPONSE_CURVE_SIZE - 1;
+        int deadValue = deadZone * maxValue / 100;
+        float cubicRatio = expo / 100f;
+
+        for (int value = deadValue + 1; value <= maxValue; value++) {
+            float t = (float)(value - deadValue) / (maxValue - deadValue);
+            float y = (1 - cubicRatio) * t + cubicRatio * t * t * t;
+            responseCurve[value] = Math.round(y * maxValue * scale / 100);
+        }
+
+        return responseCurve;
+    }
+}
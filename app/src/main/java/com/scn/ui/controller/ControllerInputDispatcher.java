@@ -0,0 +1,308 @@
+package com.scn.ui.controller;
+
+import android.os.Process;
+import android.support.annotation.NonNull;
+
+import com.scn.devicemanagement.Device;
+import com.scn.logger.Logger;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Applies the controller input to the device outputs on its own high priority thread, so a
+ * stalled main thread (layout, GC) does not delay the motors.
+ *
+ * The main thread is the single producer: it pushes the raw key and axis samples into a lock free
+ * ring buffer. The dispatch thread is the single consumer: it evaluates the samples with the
+ * compiled dispatch table and sets the outputs. The axis samples of a motion event are published
+ * together with its commit sample, a motion event is applied as a whole or dropped as a whole if
+ * the ring is full.
+ */
+
+final class ControllerInputDispatcher {
+
+    //
+    // Constants
+    //
+
+    private static final String TAG = ControllerInputDispatcher.class.getSimpleName();
+
+    // Power of two
+    private static final int RING_CAPACITY = 1024;
+    private static final int RING_MASK = RING_CAPACITY - 1;
+
+    private static final int SAMPLE_KEY_DOWN = 1;
+    private static final int SAMPLE_KEY_UP = 2;
+    private static final int SAMPLE_MOTION = 3;
+    private static final int SAMPLE_COMMIT = 4;
+
+    //
+    // Private members
+    //
+
+    // Sample: type (8 bits), code (24 bits), value (32 bits)
+    private final long ring[] = new long[RING_CAPACITY];
+    private final AtomicLong writeIndex = new AtomicLong();
+    private final AtomicLong readIndex = new AtomicLong();
+
+    private volatile ControllerDispatchTable dispatchTable = null;
+    private volatile boolean isRunning = false;
+    private Thread dispatchThread = null;
+
+    // Accessed only on the main thread
+    private long pendingWriteIndex = 0;
+    private boolean isMotionDropped = false;
+    private int droppedCount = 0;
+
+    // Accessed only on the dispatch thread
+    private ControllerDispatchTable accumulatorTable = null;
+    private int accumulatedOutputs[] = new int[0];
+    private long accumulatedOutputBits[] = new long[0];
+
+    // Last controller value passed through the hysteresis of each action
+    private int filteredValues[] = new int[0];
+
+    //
+    // API
+    //
+
+    void start() {
+        Logger.i(TAG, "start...");
+
+        if (dispatchThread != null) {
+            Logger.i(TAG, "  Already started.");
+            return;
+        }
+
+        isRunning = true;
+        dispatchThread = new Thread(() -> {
+            Logger.i(TAG, "Entering the dispatch thread...");
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+
+            while (isRunning) {
+                if (!dispatchSamples()) {
+                    LockSupport.park(this);
+                }
+            }
+
+            Logger.i(TAG, "Exiting from the dispatch thread.");
+        });
+        dispatchThread.setName("ControllerInputDispatcher");
+        dispatchThread.start();
+    }
+
+    void stop() {
+        Logger.i(TAG, "stop - dropped motion events: " + droppedCount);
+
+        if (dispatchThread == null) {
+            return;
+        }
+
+        isRunning = false;
+        LockSupport.unpark(dispatchThread);
+        try { dispatchThread.join(); } catch (InterruptedException ignored) {}
+        dispatchThread = null;
+    }
+
+    /**
+     * The table is picked up by the dispatch thread with the next sample.
+     */
+    void setDispatchTable(@NonNull ControllerDispatchTable dispatchTable) {
+        this.dispatchTable = dispatchTable;
+    }
+
+    void pushKeyDown(int keyCode) {
+        beginSamples();
+        addSample(SAMPLE_KEY_DOWN, keyCode, 0);
+        publishSamples();
+    }
+
+    void pushKeyUp(int keyCode) {
+        beginSamples();
+        addSample(SAMPLE_KEY_UP, keyCode, 0);
+        publishSamples();
+    }
+
+    void beginMotion() {
+        beginSamples();
+    }
+
+    void pushMotion(int motionCode, int value) {
+        addSample(SAMPLE_MOTION, motionCode, value);
+    }
+
+    void commitMotion() {
+        addSample(SAMPLE_COMMIT, 0, 0);
+        publishSamples();
+    }
+
+    //
+    // Producer side
+    //
+
+    private void beginSamples() {
+        pendingWriteIndex = writeIndex.get();
+        isMotionDropped = false;
+    }
+
+    private void addSample(int type, int code, int value) {
+        if (isMotionDropped || pendingWriteIndex - readIndex.get() >= RING_CAPACITY) {
+            isMotionDropped = true;
+            return;
+        }
+
+        ring[(int)(pendingWriteIndex & RING_MASK)] = ((long)type << 56) | ((long)(code & 0xffffff) << 32) | (value & 0xffffffffL);
+        pendingWriteIndex++;
+    }
+
+    private void publishSamples() {
+        if (isMotionDropped) {
+            droppedCount++;
+            return;
+        }
+
+        // Ordered store, the consumer sees the samples written before it
+        writeIndex.lazySet(pendingWriteIndex);
+        LockSupport.unpark(dispatchThread);
+    }
+
+    //
+    // Consumer side
+    //
+
+    /**
+     * @return false if there was nothing to dispatch.
+     */
+    private boolean dispatchSamples() {
+        long read = readIndex.get();
+        long write = writeIndex.get();
+        if (read == write) {
+            return false;
+        }
+
+        ControllerDispatchTable table = dispatchTable;
+        if (table != accumulatorTable) {
+            setAccumulatorTable(table);
+        }
+
+        while (read < write) {
+            long sample = ring[(int)(read & RING_MASK)];
+            read++;
+
+            if (table == null) continue;
+
+            int type = (int)(sample >>> 56);
+            int code = (int)(sample >>> 32) & 0xffffff;
+            int value = (int)sample;
+            switch (type) {
+                case SAMPLE_KEY_DOWN: applyKeyDown(table, code); break;
+                case SAMPLE_KEY_UP: applyKeyUp(table, code); break;
+                case SAMPLE_MOTION: applyMotion(table, code, value); break;
+                case SAMPLE_COMMIT: applyCommit(table); break;
+            }
+        }
+
+        readIndex.lazySet(read);
+        return true;
+    }
+
+    private void setAccumulatorTable(ControllerDispatchTable table) {
+        accumulatorTable = table;
+
+        int numOutputs = table != null ? table.getNumberOfOutputs() : 0;
+        if (accumulatedOutputs.length < numOutputs) {
+            accumulatedOutputs = new int[numOutputs];
+            accumulatedOutputBits = new long[(numOutputs + 63) >> 6];
+        }
+        Arrays.fill(accumulatedOutputBits, 0);
+
+        int numActions = table != null ? table.getNumberOfActions() : 0;
+        if (filteredValues.length < numActions) {
+            filteredValues = new int[numActions];
+        }
+        Arrays.fill(filteredValues, 0);
+    }
+
+    private void applyKeyDown(@NonNull ControllerDispatchTable table, int keyCode) {
+        for (int i = table.getKeyActionStart(keyCode), end = table.getKeyActionEnd(keyCode); i < end; i++) {
+            Device device = table.devices[table.actionDeviceSlots[i]];
+            if (device == null) continue;
+
+            int channel = table.actionChannels[i];
+            if (table.actionIsToggles[i] && device.getOutput(channel) != 0) {
+                device.setOutput(channel, 0);
+            }
+            else {
+                device.setOutput(channel, table.getOutputValue(i, 255));
+            }
+        }
+    }
+
+    private void applyKeyUp(@NonNull ControllerDispatchTable table, int keyCode) {
+        for (int i = table.getKeyActionStart(keyCode), end = table.getKeyActionEnd(keyCode); i < end; i++) {
+            Device device = table.devices[table.actionDeviceSlots[i]];
+            if (device == null) continue;
+
+            if (!table.actionIsToggles[i]) {
+                device.setOutput(table.actionChannels[i], 0);
+            }
+        }
+    }
+
+    private void applyMotion(@NonNull ControllerDispatchTable table, int motionCode, int value) {
+        int motionIndex = table.getMotionIndex(motionCode);
+        if (motionIndex < 0) return;
+
+        for (int i = table.motionActionStarts[motionIndex], end = table.motionActionStarts[motionIndex + 1]; i < end; i++) {
+            if (table.devices[table.actionDeviceSlots[i]] == null) continue;
+
+            int outputIndex = table.getOutputIndex(i);
+            int outputValue = table.getOutputValue(i, filterValue(table, i, value));
+            int word = outputIndex >> 6;
+            long bit = 1L << outputIndex;
+
+            if ((accumulatedOutputBits[word] & bit) != 0) {
+                accumulatedOutputs[outputIndex] = Math.min(255, Math.max(-255, accumulatedOutputs[outputIndex] + outputValue));
+            }
+            else {
+                accumulatedOutputBits[word] |= bit;
+                accumulatedOutputs[outputIndex] = outputValue;
+            }
+        }
+    }
+
+    /**
+     * Small changes of the axis are ignored, except when it gets back into the dead zone or to the
+     * end, so the output can still reach zero and the max.
+     */
+    private int filterValue(@NonNull ControllerDispatchTable table, int actionIndex, int value) {
+        int hysteresis = table.actionHysteresis[actionIndex];
+        if (hysteresis == 0) return value;
+
+        if (Math.abs(value - filteredValues[actionIndex]) < hysteresis &&
+                Math.abs(value) < ControllerDispatchTable.RESPONSE_CURVE_SIZE - 1 &&
+                table.getOutputValue(actionIndex, value) != 0) {
+            return filteredValues[actionIndex];
+        }
+
+        filteredValues[actionIndex] = value;
+        return value;
+    }
+
+    private void applyCommit(@NonNull ControllerDispatchTable table) {
+        for (int word = 0; word < accumulatedOutputBits.length; word++) {
+            long bits = accumulatedOutputBits[word];
+            accumulatedOutputBits[word] = 0;
+
+            while (bits != 0) {
+                int outputIndex = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+
+                Device device = table.devices[outputIndex / table.channelsPerSlot];
+                device.setOutput(outputIndex % table.channelsPerSlot, accumulatedOutputs[outputIndex]);
+            }
+        }
+    }
+}
@@ -6,11 +6,8 @@ import android.arch.lifecycle.Observer;
 import android.arch.lifecycle.ViewModel;
 import android.support.annotation.MainThread;
 import android.support.annotation.NonNull;
-import android.util.Pair;
 
 import com.scn.common.StateChange;
-import com.scn.creationmanagement.ControllerAction;
-import com.scn.creationmanagement.ControllerEvent;
 import com.scn.creationmanagement.ControllerProfile;
 import com.scn.creationmanagement.Creation;
 import com.scn.creationmanagement.CreationManager;
@@ -18,7 +15,9 @@ import com.scn.devicemanagement.Device;
 import com.scn.devicemanagement.DeviceManager;
 import com.scn.logger.Logger;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +35,8 @@ public class ControllerViewModel extends ViewModel {
 
     private static final String TAG = ControllerViewModel.class.getSimpleName();
 
+    private static final int MISSING_DEVICE_SCAN_TIMEOUT_SECS = 10;
+
     private DeviceManager deviceManager;
     private CreationManager creationManager;
 
@@ -43,9 +44,16 @@ public class ControllerViewModel extends ViewModel {
     private ControllerProfile selectedControllerProfile;
 
     private Map<String, Device> deviceMap = new HashMap<>();
+    private List<String> missingDeviceIds = new ArrayList<>();
+    private boolean isHighLinkPriority = false;
     private MutableLiveData<Map<Device, Device.State>> deviceStatesLiveData = new MutableLiveData<>();
 
-    private Map<Pair<Device, Integer>, Integer> actionMap = new HashMap<>();
+    // Compiled per profile instance, the profiles can't be edited while the controller is in use
+    private Map<ControllerProfile, ControllerDispatchTable> dispatchTables = new IdentityHashMap<>();
+    private ControllerDispatchTable dispatchTable = null;
+
+    // The controller events are applied to the outputs on the dispatcher's own thread
+    private ControllerInputDispatcher inputDispatcher = new ControllerInputDispatcher();
 
     //
     // Constructor
@@ -67,9 +75,16 @@ public class ControllerViewModel extends ViewModel {
         Logger.i(TAG, "onCleared...");
         super.onCleared();
 
+        inputDispatcher.stop();
+
         for (Device device : deviceMap.values()) {
             device.getStateChangeLiveData().removeObserver(deviceStateChangeObserver);
         }
+
+        if (!missingDeviceIds.isEmpty()) {
+            deviceManager.getDeviceListLiveData().removeObserver(deviceListObserver);
+            deviceManager.stopDeviceScan();
+        }
     }
 
     //
@@ -95,14 +110,23 @@ public class ControllerViewModel extends ViewModel {
 
         for (String deviceId : creation.getUsedDeviceIds()) {
             Device device = deviceManager.getDevice(deviceId);
-            if (device != null && !deviceMap.containsKey(deviceId)) {
-                deviceMap.put(deviceId, device);
-
-                device.getStateChangeLiveData().observeForever(deviceStateChangeObserver);
+            if (device == null) {
+                missingDeviceIds.add(deviceId);
+            }
+            else if (!deviceMap.containsKey(deviceId)) {
+                addDevice(device);
             }
         }
 
+        inputDispatcher.start();
         connectDevices();
+
+        // Devices missing from the repository are looked for only until all of them show up
+        if (!missingDeviceIds.isEmpty()) {
+            Logger.i(TAG, "  Scanning for missing devices: " + missingDeviceIds);
+            deviceManager.getDeviceListLiveData().observeForever(deviceListObserver);
+            deviceManager.startDeviceScan(missingDeviceIds, MISSING_DEVICE_SCAN_TIMEOUT_SECS);
+        }
     }
 
     @MainThread
@@ -124,7 +148,7 @@ public class ControllerViewModel extends ViewModel {
     void connectDevices() {
         Logger.i(TAG, "connectDevices...");
         for (Device device : deviceMap.values()) {
-            device.connect();
+            deviceManager.connectDevice(device);
         }
     }
 
@@ -132,7 +156,19 @@ public class ControllerViewModel extends ViewModel {
     void disconnectDevices() {
         Logger.i(TAG, "disconnectDevices...");
         for (Device device : deviceMap.values()) {
-            device.disconnect();
+            deviceManager.disconnectDevice(device);
+        }
+    }
+
+    /**
+     * Bluetooth devices are asked for a short connection interval while the controller is in use.
+     */
+    @MainThread
+    void setHighLinkPriority(boolean isHighLinkPriority) {
+        Logger.i(TAG, "setHighLinkPriority - " + isHighLinkPriority);
+        this.isHighLinkPriority = isHighLinkPriority;
+        for (Device device : deviceMap.values()) {
+            deviceManager.setHighLinkPriority(device, isHighLinkPriority);
         }
     }
 
@@ -140,85 +176,91 @@ public class ControllerViewModel extends ViewModel {
     void selectControllerProfile(ControllerProfile controllerProfile) {
         Logger.i(TAG, "selectControllerProfile - " + controllerProfile);
         selectedControllerProfile = controllerProfile;
+        dispatchTable = null;
+    }
+
+    /**
+     * @return the axis codes having actions in the selected controller profile.
+     */
+    @MainThread
+    int[] getMappedMotionCodes() {
+        return getDispatchTable().mappedMotionCodes;
     }
 
     @MainThread
     void keyDownAction(int keyCode) {
-        for (ControllerEvent controllerEvent : selectedControllerProfile.getControllerEvents()) {
-            if (controllerEvent.getEventType() == ControllerEvent.ControllerEventType.KEY && controllerEvent.getEventCode() == keyCode) {
-                for (ControllerAction controllerAction : controllerEvent.getControllerActions()) {
-                    Device device = deviceMap.get(controllerAction.getDeviceId());
-                    int channel = controllerAction.getChannel();
-
-                    if (controllerAction.getIsToggle()) {
-                        int currentValue = device.getOutput(controllerAction.getChannel());
-                        if (currentValue == 0) {
-                            int outputValue = calculateOutputValue(255, controllerAction.getIsInvert(), controllerAction.getMaxOutput());
-                            device.setOutput(channel, outputValue);
-                        }
-                        else {
-                            device.setOutput(channel, 0);
-                        }
-                    }
-                    else {
-                        int outputValue = calculateOutputValue(255, controllerAction.getIsInvert(), controllerAction.getMaxOutput());
-                        device.setOutput(channel, outputValue);
-                    }
-                }
-            }
-        }
+        getDispatchTable();
+        inputDispatcher.pushKeyDown(keyCode);
     }
 
     @MainThread
     void keyUpAction(int keyCode) {
-        for (ControllerEvent controllerEvent : selectedControllerProfile.getControllerEvents()) {
-            if (controllerEvent.getEventType() == ControllerEvent.ControllerEventType.KEY && controllerEvent.getEventCode() == keyCode) {
-                for (ControllerAction controllerAction : controllerEvent.getControllerActions()) {
-                    Device device = deviceMap.get(controllerAction.getDeviceId());
-                    int channel = controllerAction.getChannel();
-
-                    if (!controllerAction.getIsToggle()) {
-                        device.setOutput(channel, 0);
-                    }
-                }
-            }
-        }
+        getDispatchTable();
+        inputDispatcher.pushKeyUp(keyCode);
     }
 
     @MainThread
     void beginControllerActions() {
-        actionMap.clear();
+        getDispatchTable();
+        inputDispatcher.beginMotion();
     }
 
     @MainThread
     void motionAction(int motionCode, int value) {
-        for (ControllerEvent controllerEvent : selectedControllerProfile.getControllerEvents()) {
-            if (controllerEvent.getEventType() == ControllerEvent.ControllerEventType.MOTION && controllerEvent.getEventCode() == motionCode) {
-                for (ControllerAction controllerAction : controllerEvent.getControllerActions()) {
-                    Device device = deviceMap.get(controllerAction.getDeviceId());
-                    int channel = controllerAction.getChannel();
-
-                    int outputValue = calculateOutputValue(value, controllerAction.getIsInvert(), controllerAction.getMaxOutput());
-                    addAction(device, channel, outputValue);
-                }
-            }
-        }
+        inputDispatcher.pushMotion(motionCode, value);
     }
 
     @MainThread
     void commitControllerActions() {
-        for (Map.Entry<Pair<Device, Integer>, Integer> entry : actionMap.entrySet()) {
-            Device device = entry.getKey().first;
-            int channel = entry.getKey().second;
-            int outputValue = entry.getValue();
-            device.setOutput(channel, outputValue);
-        }
+        inputDispatcher.commitMotion();
     }
 
     //
     // Private methods
     //
 
+    private ControllerDispatchTable getDispatchTable() {
+        if (dispatchTable == null) {
+            dispatchTable = dispatchTables.get(selectedControllerProfile);
+            if (dispatchTable == null) {
+                Logger.i(TAG, "Compiling controller profile - " + selectedControllerProfile);
+                dispatchTable = ControllerDispatchTable.compile(selectedControllerProfile, deviceMap);
+                dispatchTables.put(selectedControllerProfile, dispatchTable);
+            }
+
+            inputDispatcher.setDispatchTable(dispatchTable);
+        }
+
+        return dispatchTable;
+    }
+
+    private void addDevice(@NonNull Device device) {
+        deviceMap.put(device.getId(), device);
+
+        // The device slots of the compiled profiles have to be resolved again
+        dispatchTables.clear();
+        dispatchTable = null;
+
+        device.getStateChangeLiveData().observeForever(deviceStateChangeObserver);
+        deviceManager.setHighLinkPriority(device, isHighLinkPriority);
+    }
+
+    private Observer<List<Device>> deviceListObserver = deviceList -> {
+        if (deviceList == null) return;
+
+        for (Device device : deviceList) {
+            if (missingDeviceIds.remove(device.getId())) {
+                Logger.i(TAG, "Missing device found - " + device);
+                addDevice(device);
+                deviceManager.connectDevice(device);
+            }
+        }
+
+        if (missingDeviceIds.isEmpty()) {
+            deviceManager.getDeviceListLiveData().removeObserver(this.deviceListObserver);
+        }
+    };
+
     private Observer<StateChange<Device.State>> deviceStateChangeObserver = stateStateChange -> {
         Logger.i(TAG, "deviceStateChanged");
 
@@ -230,21 +272,4 @@ public class ControllerViewModel extends ViewModel {
 
         deviceStatesLiveData.setValue(deviceStateMap);
     };
-
-    private int calculateOutputValue(int value, boolean isInvert, int maxOutput) {
-        int v = (value * maxOutput) / 100;
-        return isInvert ? -v : v;
-    }
-
-    private void addAction(@NonNull Device device, int channel, int outputValue) {
-        Pair<Device, Integer> deviceChannel = new Pair(device, channel);
-        if (actionMap.containsKey(deviceChannel)) {
-            int currentValue = actionMap.get(deviceChannel);
-            int newValue = Math.min(255, Math.max(-255, currentValue + outputValue));
-            actionMap.put(deviceChannel, newValue);
-        }
-        else {
-            actionMap.put(deviceChannel, outputValue);
-        }
-    }
 }
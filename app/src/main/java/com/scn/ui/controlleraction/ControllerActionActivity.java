@@ -58,6 +58,9 @@ public class ControllerActionActivity extends BaseActivity {
     @BindView(R.id.revert_channel) CheckBox isRevertChannelCheckBox;
     @BindView(R.id.toggle_button) CheckBox isToggleButtonCheckBox;
     @BindView(R.id.max_output) AppCompatSeekBar maxOutputSeekBar;
+    @BindView(R.id.dead_zone) AppCompatSeekBar deadZoneSeekBar;
+    @BindView(R.id.expo) AppCompatSeekBar expoSeekBar;
+    @BindView(R.id.filter) AppCompatSeekBar filterSeekBar;
 
     //
     // Activity overrides
@@ -226,6 +229,45 @@ public class ControllerActionActivity extends BaseActivity {
             @Override public void onStartTrackingTouch(SeekBar seekBar) {}
             @Override public void onStopTrackingTouch(SeekBar seekBar) {}
         });
+
+        // The response settings apply to the axes only
+        boolean isAxis = viewModel.getControllerEvent().getEventType() == ControllerEvent.ControllerEventType.MOTION;
+
+        deadZoneSeekBar.setEnabled(isAxis);
+        deadZoneSeekBar.setProgress(viewModel.getSelectedDeadZone());
+        deadZoneSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
+                viewModel.selectDeadZone(i);
+            }
+
+            @Override public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+
+        expoSeekBar.setEnabled(isAxis);
+        expoSeekBar.setProgress(viewModel.getSelectedExpo());
+        expoSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
+                viewModel.selectExpo(i);
+            }
+
+            @Override public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
+
+        filterSeekBar.setEnabled(isAxis);
+        filterSeekBar.setProgress(viewModel.getSelectedFilter());
+        filterSeekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int i, boolean b) {
+                viewModel.selectFilter(i);
+            }
+
+            @Override public void onStartTrackingTouch(SeekBar seekBar) {}
+            @Override public void onStopTrackingTouch(SeekBar seekBar) {}
+        });
     }
 
     private void setupChannelSelectorView(Device selectedDevice) {
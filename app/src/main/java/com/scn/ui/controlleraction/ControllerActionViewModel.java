@@ -44,6 +44,9 @@ public class ControllerActionViewModel extends ViewModel {
     private boolean selectedIsInvert;
     private boolean selectedIsToggle;
     private int selectedMaxOutput;
+    private int selectedDeadZone;
+    private int selectedExpo;
+    private int selectedFilter;
 
     //
     // Constructor
@@ -86,6 +89,9 @@ public class ControllerActionViewModel extends ViewModel {
             selectedIsInvert = controllerAction.getIsInvert();
             selectedIsToggle = controllerAction.getIsToggle();
             selectedMaxOutput = controllerAction.getMaxOutput();
+            selectedDeadZone = controllerAction.getDeadZone();
+            selectedExpo = controllerAction.getExpo();
+            selectedFilter = controllerAction.getFilter();
         }
         else {
             controllerEvent = creationManager.getControllerEvent(controllerEventId);
@@ -95,6 +101,9 @@ public class ControllerActionViewModel extends ViewModel {
             selectedIsInvert = false;
             selectedIsToggle = false;
             selectedMaxOutput = 100;
+            selectedDeadZone = 4;
+            selectedExpo = 0;
+            selectedFilter = 0;
         }
     }
 
@@ -139,6 +148,21 @@ public class ControllerActionViewModel extends ViewModel {
         return selectedMaxOutput;
     }
 
+    @MainThread
+    int getSelectedDeadZone() {
+        return selectedDeadZone;
+    }
+
+    @MainThread
+    int getSelectedExpo() {
+        return selectedExpo;
+    }
+
+    @MainThread
+    int getSelectedFilter() {
+        return selectedFilter;
+    }
+
     @MainThread
     void selectDevice(@NonNull Device device) {
         Logger.i(TAG, "selectDevice - " + device);
@@ -173,6 +197,24 @@ public class ControllerActionViewModel extends ViewModel {
         selectedMaxOutput = maxOutput;
     }
 
+    @MainThread
+    void selectDeadZone(int deadZone) {
+        Logger.i(TAG, "selectDeadZone - " + deadZone);
+        selectedDeadZone = deadZone;
+    }
+
+    @MainThread
+    void selectExpo(int expo) {
+        Logger.i(TAG, "selectExpo - " + expo);
+        selectedExpo = expo;
+    }
+
+    @MainThread
+    void selectFilter(int filter) {
+        Logger.i(TAG, "selectFilter - " + filter);
+        selectedFilter = filter;
+    }
+
     @MainThread
     boolean checkIfControllerActionCanBeSaved() {
         ControllerAction ca = controllerEvent.getControllerAction(selectedDevice.getId(), selectedChannel);
@@ -193,11 +235,11 @@ public class ControllerActionViewModel extends ViewModel {
 
         if (controllerAction != null) {
             Logger.i(TAG, "  Updating the controller action...");
-            return creationManager.updateControllerActionAsync(controllerAction, selectedDevice.getId(), selectedChannel, selectedIsInvert, selectedIsToggle, selectedMaxOutput);
+            return creationManager.updateControllerActionAsync(controllerAction, selectedDevice.getId(), selectedChannel, selectedIsInvert, selectedIsToggle, selectedMaxOutput, selectedDeadZone, selectedExpo, selectedFilter);
         }
         else {
             Logger.i(TAG, "  Adding the controller action...");
-            return creationManager.addControllerActionAsync(controllerEvent, selectedDevice.getId(), selectedChannel, selectedIsInvert, selectedIsToggle, selectedMaxOutput);
+            return creationManager.addControllerActionAsync(controllerEvent, selectedDevice.getId(), selectedChannel, selectedIsInvert, selectedIsToggle, selectedMaxOutput, selectedDeadZone, selectedExpo, selectedFilter);
         }
     }
 }
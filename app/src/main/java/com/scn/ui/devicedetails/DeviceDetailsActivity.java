@@ -137,6 +137,10 @@ public class DeviceDetailsActivity extends BaseActivity {
                     break;
             }
         });
+
+        viewModel.getDeviceTelemetryLiveData().observe(DeviceDetailsActivity.this, deviceTelemetry -> {
+            deviceDetailsAdapter.setDeviceTelemetry(deviceTelemetry);
+        });
     }
 
     private void setupRecyclerView() {
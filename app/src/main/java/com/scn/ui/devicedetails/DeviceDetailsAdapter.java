@@ -1,5 +1,6 @@
 package com.scn.ui.devicedetails;
 
+import android.content.Context;
 import android.support.annotation.NonNull;
 import android.support.v7.widget.AppCompatSeekBar;
 import android.support.v7.widget.RecyclerView;
@@ -16,6 +17,8 @@ import com.google.gson.Gson;
 import com.scn.devicemanagement.BuWizz2Device;
 import com.scn.devicemanagement.BuWizzDevice;
 import com.scn.devicemanagement.Device;
+import com.scn.devicemanagement.DeviceTelemetry;
+import com.scn.devicemanagement.KeepAlivePolicy;
 import com.scn.ui.R;
 
 import javax.inject.Inject;
@@ -54,6 +57,7 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
     private static final int VIEWTYPE_BUWIZZ2_SPECIFIC_DATA = 5;
 
     private Device device;
+    private DeviceTelemetry deviceTelemetry = null;
     private OnDeviceChannelOutputChangedListener outputChangedListener = null;
     private OnDeviceSpecificDataChangedListener deviceSpecificDataChangedListener = null;
     private OnEditDeviceNameListener editDeviceNameListener = null;
@@ -156,6 +160,16 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             case VIEWTYPE_BUWIZZ2_SPECIFIC_DATA:
                 ((BuWizz2SpecificDataViewHolder)holder).bind(device, deviceSpecificDataChangedListener);
                 break;
+
+            case VIEWTYPE_DEVICE_INFO:
+                int index = position - getNumberOfLeadingItems() - device.getNumberOfChannels();
+                if (index < getNumberOfKeepAliveItems()) {
+                    bindKeepAliveItem((DeviceInfoViewHolder)holder, index);
+                }
+                else {
+                    bindTelemetryItem((DeviceInfoViewHolder)holder, index - getNumberOfKeepAliveItems());
+                }
+                break;
         }
     }
 
@@ -165,11 +179,7 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             return 0;
         }
         else {
-            Device.DeviceType deviceType = device.getType();
-            if (deviceType == Device.DeviceType.BUWIZZ || deviceType == Device.DeviceType.BUWIZZ2)
-                return device.getNumberOfChannels() + 2;
-            else
-                return device.getNumberOfChannels() + 1;
+            return getNumberOfLeadingItems() + device.getNumberOfChannels() + getNumberOfKeepAliveItems() + getNumberOfTelemetryItems();
         }
     }
 
@@ -182,6 +192,16 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         notifyDataSetChanged();
     }
 
+    /**
+     * Only the telemetry rows are rebound, the seekbars being dragged are left alone.
+     */
+    void setDeviceTelemetry(DeviceTelemetry deviceTelemetry) {
+        this.deviceTelemetry = deviceTelemetry;
+        if (device != null && getNumberOfTelemetryItems() > 0) {
+            notifyItemRangeChanged(getItemCount() - getNumberOfTelemetryItems(), getNumberOfTelemetryItems());
+        }
+    }
+
     void setOutputChangedListener(OnDeviceChannelOutputChangedListener outputChangedListener) {
         this.outputChangedListener = outputChangedListener;
         notifyDataSetChanged();
@@ -197,6 +217,60 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
         notifyDataSetChanged();
     }
 
+    //
+    // Private methods
+    //
+
+    private int getNumberOfLeadingItems() {
+        Device.DeviceType deviceType = device.getType();
+        return (deviceType == Device.DeviceType.BUWIZZ || deviceType == Device.DeviceType.BUWIZZ2) ? 2 : 1;
+    }
+
+    private int getNumberOfKeepAliveItems() {
+        return device.getKeepAlivePolicy() != null ? 2 : 0;
+    }
+
+    private int getNumberOfTelemetryItems() {
+        return device.isTelemetrySupported() ? 3 : 0;
+    }
+
+    private void bindTelemetryItem(@NonNull DeviceInfoViewHolder holder, int index) {
+        Context context = holder.itemView.getContext();
+        switch (index) {
+            case 0:
+                holder.bind(context.getString(R.string.battery_voltage), formatTelemetryValue(context, R.string.volts, deviceTelemetry != null ? deviceTelemetry.batteryVoltage : Float.NaN));
+                break;
+
+            case 1:
+                holder.bind(context.getString(R.string.lowest_battery_voltage), formatTelemetryValue(context, R.string.volts, deviceTelemetry != null ? deviceTelemetry.lowestBatteryVoltage : Float.NaN));
+                break;
+
+            case 2:
+                holder.bind(context.getString(R.string.temperature), formatTelemetryValue(context, R.string.degrees_celsius, deviceTelemetry != null ? deviceTelemetry.temperature : Float.NaN));
+                break;
+        }
+    }
+
+    private String formatTelemetryValue(@NonNull Context context, int formatResId, float value) {
+        return Float.isNaN(value) ? context.getString(R.string.not_available) : context.getString(formatResId, value);
+    }
+
+    private void bindKeepAliveItem(@NonNull DeviceInfoViewHolder holder, int index) {
+        KeepAlivePolicy keepAlivePolicy = device.getKeepAlivePolicy();
+        if (keepAlivePolicy == null) return;
+
+        Context context = holder.itemView.getContext();
+        if (index == 0) {
+            String value = keepAlivePolicy.watchdogTimeoutMs > 0
+                    ? context.getString(R.string.milliseconds, keepAlivePolicy.watchdogTimeoutMs)
+                    : context.getString(R.string.not_configurable);
+            holder.bind(context.getString(R.string.watchdog_timeout), value);
+        }
+        else {
+            holder.bind(context.getString(R.string.keep_alive_interval), context.getString(R.string.milliseconds, keepAlivePolicy.keepAliveIntervalMs));
+        }
+    }
+
     //
     // ViewHolders
     //
@@ -309,19 +383,22 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             radioGroup.setOnCheckedChangeListener((radioGroup, i) -> {
                 switch (i) {
                     case R.id.radio_low: {
-                            String data = new Gson().toJson(new BuWizzDevice.BuWizzData(BuWizzDevice.BuWizzOutputLevel.LOW));
+                        buWizzData.outputLevel = BuWizzDevice.BuWizzOutputLevel.LOW;
+                        String data = new Gson().toJson(buWizzData);
                             listener.onDeviceSpecificDataChanged(device, data);
                         }
                         break;
 
                     case R.id.radio_normal: {
-                        String data = new Gson().toJson(new BuWizzDevice.BuWizzData(BuWizzDevice.BuWizzOutputLevel.NORMAL));
+                        buWizzData.outputLevel = BuWizzDevice.BuWizzOutputLevel.NORMAL;
+                        String data = new Gson().toJson(buWizzData);
                         listener.onDeviceSpecificDataChanged(device, data);
                     }
                     break;
 
                     case R.id.radio_high: {
-                        String data = new Gson().toJson(new BuWizzDevice.BuWizzData(BuWizzDevice.BuWizzOutputLevel.HIGH));
+                        buWizzData.outputLevel = BuWizzDevice.BuWizzOutputLevel.HIGH;
+                        String data = new Gson().toJson(buWizzData);
                         listener.onDeviceSpecificDataChanged(device, data);
                     }
                     break;
@@ -365,25 +442,29 @@ final class DeviceDetailsAdapter extends RecyclerView.Adapter<RecyclerView.ViewH
             radioGroup.setOnCheckedChangeListener((radioGroup, i) -> {
                 switch (i) {
                     case R.id.radio_low: {
-                        String data = new Gson().toJson(new BuWizz2Device.BuWizz2Data(BuWizz2Device.BuWizz2OutputLevel.LOW));
+                        buWizz2Data.outputLevel = BuWizz2Device.BuWizz2OutputLevel.LOW;
+                        String data = new Gson().toJson(buWizz2Data);
                         listener.onDeviceSpecificDataChanged(device, data);
                     }
                     break;
 
                     case R.id.radio_normal: {
-                        String data = new Gson().toJson(new BuWizz2Device.BuWizz2Data(BuWizz2Device.BuWizz2OutputLevel.NORMAL));
+                        buWizz2Data.outputLevel = BuWizz2Device.BuWizz2OutputLevel.NORMAL;
+                        String data = new Gson().toJson(buWizz2Data);
                         listener.onDeviceSpecificDataChanged(device, data);
                     }
                     break;
 
                     case R.id.radio_high: {
-                        String data = new Gson().toJson(new BuWizz2Device.BuWizz2Data(BuWizz2Device.BuWizz2OutputLevel.HIGH));
+                        buWizz2Data.outputLevel = BuWizz2Device.BuWizz2OutputLevel.HIGH;
+                        String data = new Gson().toJson(buWizz2Data);
                         listener.onDeviceSpecificDataChanged(device, data);
                     }
                     break;
 
                     case R.id.radio_ludicrous: {
-                        String data = new Gson().toJson(new BuWizz2Device.BuWizz2Data(BuWizz2Device.BuWizz2OutputLevel.LUDICROUS));
+                        buWizz2Data.outputLevel = BuWizz2Device.BuWizz2OutputLevel.LUDICROUS;
+                        String data = new Gson().toJson(buWizz2Data);
                         listener.onDeviceSpecificDataChanged(device, data);
                     }
                     break;
@@ -8,6 +8,7 @@ import android.support.annotation.NonNull;
 import com.scn.common.StateChange;
 import com.scn.devicemanagement.Device;
 import com.scn.devicemanagement.DeviceManager;
+import com.scn.devicemanagement.DeviceTelemetry;
 import com.scn.logger.Logger;
 
 import javax.inject.Inject;
@@ -83,6 +84,12 @@ public class DeviceDetailsViewModel extends ViewModel {
         return device.getStateChangeLiveData();
     }
 
+    @MainThread
+    LiveData<DeviceTelemetry> getDeviceTelemetryLiveData() {
+        Logger.i(TAG, "getDeviceTelemetryLiveData...");
+        return device.getTelemetryLiveData();
+    }
+
     @MainThread
     void connectDevice() {
         Logger.i(TAG, "connectDevice - " + device);
@@ -0,0 +1,46 @@
+package com.scn.creationmanagement;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Builds controller profiles for the tests outside of the package, without the database.
+ */
+
+public final class ControllerProfileBuilder {
+
+    //
+    // Private members
+    //
+
+    private final ControllerProfile controllerProfile;
+
+    //
+    // Constructor
+    //
+
+    public ControllerProfileBuilder(@NonNull String name) {
+        controllerProfile = new ControllerProfile(0, 0, name);
+    }
+
+    //
+    // API
+    //
+
+    /**
+     * Adds a linear action without dead zone and filtering.
+     */
+    public ControllerProfileBuilder addAction(@NonNull ControllerEvent.ControllerEventType eventType, int eventCode, @NonNull String deviceId, int channel, int maxOutput) {
+        ControllerEvent controllerEvent = controllerProfile.getControllerEvent(eventType, eventCode);
+        if (controllerEvent == null) {
+            controllerEvent = new ControllerEvent(eventType, eventCode);
+            controllerProfile.addControllerEvent(controllerEvent);
+        }
+
+        controllerEvent.addControllerAction(new ControllerAction(0, 0, deviceId, channel, false, false, maxOutput, 0, 0, 0));
+        return this;
+    }
+
+    public ControllerProfile build() {
+        return controllerProfile;
+    }
+}
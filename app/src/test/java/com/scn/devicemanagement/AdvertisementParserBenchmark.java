@@ -0,0 +1,137 @@
+package com.scn.devicemanagement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classifies scan records in place, compared to the hex string map the scan callback built
+ * before. The hex string version is kept here without its logging, which only made it slower.
+ *
+ *   ./gradlew :app:benchmark -PjmhArgs="AdvertisementParserBenchmark -prof gc"
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AdvertisementParserBenchmark {
+
+    //
+    // Constants
+    //
+
+    // A BuWizz 2 advertisement and one of another manufacturer, like a scan around the hubs sees
+    private static final byte RECORDS[][] = new byte[][] {
+            record(
+                    0x02, 0x01, 0x06,
+                    0x11, 0x07, 0x9e, 0xca, 0xdc, 0x24, 0x0e, 0xe5, 0xa9, 0xe0, 0x93, 0xf3, 0xa3, 0xb5, 0x00, 0x00, 0x40, 0x6e,
+                    0x05, 0xff, 0x4e, 0x05, 0x02, 0x00,
+                    0x08, 0x09, 'B', 'u', 'W', 'i', 'z', 'z', '2'),
+            record(
+                    0x02, 0x01, 0x1a,
+                    0x0a, 0xff, 0x4c, 0x00, 0x10, 0x05, 0x01, 0x18, 0x2c, 0x6e, 0x5b)
+    };
+
+    //
+    // Members
+    //
+
+    private int recordIndex = 0;
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public Device.DeviceType inPlace() {
+        return AdvertisementParser.getDeviceType(nextRecord());
+    }
+
+    @Benchmark
+    public Device.DeviceType hexStringMap() {
+        Map<String, String> scanRecordMap = processScanRecord(nextRecord());
+        if (!scanRecordMap.containsKey("FF")) {
+            return null;
+        }
+
+        String manufacturerData = scanRecordMap.get("FF");
+        if (manufacturerData.startsWith("98 01")) {
+            return Device.DeviceType.SBRICK;
+        }
+        else if (manufacturerData.startsWith("48 4D")) {
+            return Device.DeviceType.BUWIZZ;
+        }
+        else if (manufacturerData.startsWith("4E 05")) {
+            return Device.DeviceType.BUWIZZ2;
+        }
+
+        return null;
+    }
+
+    //
+    // Private methods
+    //
+
+    private byte[] nextRecord() {
+        recordIndex = (recordIndex + 1) % RECORDS.length;
+        return RECORDS[recordIndex];
+    }
+
+    private static Map<String, String> processScanRecord(byte scanRecord[]) {
+        Map<String, String> scanRecordMap = new HashMap<>();
+
+        boolean isLength = true;
+        int length = 0;
+        String type = "";
+        byte index = 0;
+        StringBuilder sb = new StringBuilder();
+
+        for (byte b : scanRecord) {
+            if (isLength) {
+                length = b;
+                if (length == 0) {
+                    return scanRecordMap;
+                }
+
+                isLength = false;
+                index = 0;
+            } else {
+                if (index == 0) {
+                    type = String.format("%02X", b);
+
+                    sb.setLength(0);
+                    index++;
+                } else {
+                    sb.append(String.format("%02X", b));
+
+                    if (index < length - 1) {
+                        sb.append(" ");
+                        index++;
+                    }
+                    else {
+                        scanRecordMap.put(type, sb.toString());
+                        isLength = true;
+                    }
+                }
+            }
+        }
+
+        return scanRecordMap;
+    }
+
+    private static byte[] record(int... values) {
+        byte result[] = new byte[62];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte)values[i];
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,154 @@
+package com.scn.devicemanagement;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Classifies a corpus of scan records, the records are padded with zeros like the ones of the
+ * legacy scan callback.
+ */
+
+public class AdvertisementParserTest {
+
+    //
+    // Corpus
+    //
+
+    private static final byte SBRICK_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x0c, 0xff, 0x98, 0x01, 0x06, 0x00, 0x00, 0x00, 0x05, 0x11, 0x0e, 0x13, 0x00,
+            0x07, 0x09, 'S', 'B', 'r', 'i', 'c', 'k');
+
+    private static final byte BUWIZZ_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x05, 0xff, 0x48, 0x4d, 0x01, 0x00,
+            0x07, 0x09, 'B', 'u', 'W', 'i', 'z', 'z');
+
+    private static final byte BUWIZZ2_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x11, 0x07, 0x9e, 0xca, 0xdc, 0x24, 0x0e, 0xe5, 0xa9, 0xe0, 0x93, 0xf3, 0xa3, 0xb5, 0x00, 0x00, 0x40, 0x6e,
+            0x05, 0xff, 0x4e, 0x05, 0x02, 0x00,
+            0x08, 0x09, 'B', 'u', 'W', 'i', 'z', 'z', '2');
+
+    private static final byte NO_MANUFACTURER_DATA_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x03, 0x03, 0x12, 0x18,
+            0x09, 0x09, 'K', 'e', 'y', 'b', 'o', 'a', 'r', 'd');
+
+    private static final byte OTHER_MANUFACTURER_RECORD[] = record(
+            0x02, 0x01, 0x1a,
+            0x0a, 0xff, 0x4c, 0x00, 0x10, 0x05, 0x01, 0x18, 0x2c, 0x6e, 0x5b);
+
+    // A second manufacturer specific data structure follows the one of another company
+    private static final byte SECOND_MANUFACTURER_DATA_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x05, 0xff, 0x4c, 0x00, 0x10, 0x05,
+            0x05, 0xff, 0x48, 0x4d, 0x01, 0x00);
+
+    // A manufacturer specific data structure of another company follows the one of the device
+    private static final byte FIRST_MANUFACTURER_DATA_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x05, 0xff, 0x4e, 0x05, 0x02, 0x00,
+            0x05, 0xff, 0x4c, 0x00, 0x10, 0x05);
+
+    // The manufacturer data claims more bytes than the record has
+    private static final byte TRUNCATED_RECORD[] = bytes(
+            0x02, 0x01, 0x06,
+            0x0c, 0xff, 0x98);
+
+    // Only the first structure is intact, the manufacturer data has no company ID
+    private static final byte SHORT_MANUFACTURER_DATA_RECORD[] = record(
+            0x02, 0x01, 0x06,
+            0x02, 0xff, 0x98);
+
+    // Structures after the zero length end of the record are ignored
+    private static final byte DATA_AFTER_END_RECORD[] = bytes(
+            0x02, 0x01, 0x06,
+            0x00,
+            0x05, 0xff, 0x48, 0x4d, 0x01, 0x00);
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void supportedDevices() {
+        assertEquals(Device.DeviceType.SBRICK, AdvertisementParser.getDeviceType(SBRICK_RECORD));
+        assertEquals(Device.DeviceType.BUWIZZ, AdvertisementParser.getDeviceType(BUWIZZ_RECORD));
+        assertEquals(Device.DeviceType.BUWIZZ2, AdvertisementParser.getDeviceType(BUWIZZ2_RECORD));
+    }
+
+    @Test
+    public void manufacturerIds() {
+        assertEquals(AdvertisementParser.MANUFACTURER_ID_SBRICK, AdvertisementParser.getManufacturerId(SBRICK_RECORD));
+        assertEquals(AdvertisementParser.MANUFACTURER_ID_BUWIZZ, AdvertisementParser.getManufacturerId(BUWIZZ_RECORD));
+        assertEquals(AdvertisementParser.MANUFACTURER_ID_BUWIZZ2, AdvertisementParser.getManufacturerId(BUWIZZ2_RECORD));
+        assertEquals(0x004c, AdvertisementParser.getManufacturerId(OTHER_MANUFACTURER_RECORD));
+    }
+
+    @Test
+    public void unsupportedManufacturer() {
+        assertNull(AdvertisementParser.getDeviceType(OTHER_MANUFACTURER_RECORD));
+    }
+
+    @Test
+    public void everyManufacturerDataIsMatched() {
+        assertEquals(Device.DeviceType.BUWIZZ, AdvertisementParser.getDeviceType(SECOND_MANUFACTURER_DATA_RECORD));
+        assertEquals(Device.DeviceType.BUWIZZ2, AdvertisementParser.getDeviceType(FIRST_MANUFACTURER_DATA_RECORD));
+
+        // The company ID is the one of the first structure
+        assertEquals(0x004c, AdvertisementParser.getManufacturerId(SECOND_MANUFACTURER_DATA_RECORD));
+
+        // The truncated second structure is not read past the end of the record
+        byte truncated[] = Arrays.copyOf(SECOND_MANUFACTURER_DATA_RECORD, 13);
+        assertNull(AdvertisementParser.getDeviceType(truncated));
+    }
+
+    @Test
+    public void noManufacturerData() {
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(NO_MANUFACTURER_DATA_RECORD));
+        assertNull(AdvertisementParser.getDeviceType(NO_MANUFACTURER_DATA_RECORD));
+    }
+
+    @Test
+    public void truncatedRecord() {
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(TRUNCATED_RECORD));
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(SHORT_MANUFACTURER_DATA_RECORD));
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(DATA_AFTER_END_RECORD));
+
+        // Every prefix of a valid record is either classified or rejected, never read past its end
+        for (int length = 0; length <= SBRICK_RECORD.length; length++) {
+            int manufacturerId = AdvertisementParser.getManufacturerId(Arrays.copyOf(SBRICK_RECORD, length));
+            assertEquals("length " + length, length < 16 ? AdvertisementParser.NO_MANUFACTURER_ID : AdvertisementParser.MANUFACTURER_ID_SBRICK, manufacturerId);
+        }
+    }
+
+    @Test
+    public void zeroLengthRecord() {
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(new byte[0]));
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(new byte[62]));
+        assertEquals(AdvertisementParser.NO_MANUFACTURER_ID, AdvertisementParser.getManufacturerId(null));
+        assertNull(AdvertisementParser.getDeviceType(new byte[0]));
+    }
+
+    //
+    // Private methods
+    //
+
+    private static byte[] bytes(int... values) {
+        byte result[] = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte)values[i];
+        }
+
+        return result;
+    }
+
+    private static byte[] record(int... values) {
+        return Arrays.copyOf(bytes(values), 62);
+    }
+}
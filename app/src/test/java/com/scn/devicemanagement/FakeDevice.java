@@ -0,0 +1,90 @@
+package com.scn.devicemanagement;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Device recording the output changes with the time and the thread they were set on.
+ */
+
+public final class FakeDevice extends Device {
+
+    //
+    // Public types
+    //
+
+    public static final class OutputChange {
+        public final int channel;
+        public final int value;
+        public final long timeNanos;
+        public final Thread thread;
+
+        OutputChange(int channel, int value, long timeNanos, Thread thread) {
+            this.channel = channel;
+            this.value = value;
+            this.timeNanos = timeNanos;
+            this.thread = thread;
+        }
+    }
+
+    //
+    // Private members
+    //
+
+    private final int outputs[];
+    private final List<OutputChange> outputChanges = new ArrayList<>();
+
+    //
+    // Constructor
+    //
+
+    public FakeDevice(@NonNull String name, @NonNull String address, int numberOfChannels) {
+        super(name, address);
+        outputs = new int[numberOfChannels];
+    }
+
+    //
+    // API
+    //
+
+    @Override
+    public DeviceType getType() { return DeviceType.SBRICK; }
+
+    @Override
+    public int getNumberOfChannels() { return outputs.length; }
+
+    @Override
+    public boolean connect() { return true; }
+
+    @Override
+    public boolean disconnect() { return true; }
+
+    @Override
+    public synchronized int getOutput(int channel) {
+        checkChannel(channel);
+        return outputs[channel];
+    }
+
+    @Override
+    public synchronized void setOutput(int channel, int level) {
+        checkChannel(channel);
+        outputs[channel] = limitOutputValue(level);
+        outputChanges.add(new OutputChange(channel, outputs[channel], System.nanoTime(), Thread.currentThread()));
+        notifyAll();
+    }
+
+    /**
+     * @return the first count output changes, fewer if they did not arrive in time.
+     */
+    public synchronized List<OutputChange> awaitOutputChanges(int count, long timeoutMs) throws InterruptedException {
+        long endTime = System.currentTimeMillis() + timeoutMs;
+        long remainingMs;
+        while (outputChanges.size() < count && (remainingMs = endTime - System.currentTimeMillis()) > 0) {
+            wait(remainingMs);
+        }
+
+        return new ArrayList<>(outputChanges.subList(0, Math.min(count, outputChanges.size())));
+    }
+}
@@ -0,0 +1,79 @@
+package com.scn.devicemanagement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes drive frames into the reused buffers of the encoders, compared to building a new frame
+ * per call the way the devices did before. Run it with the gc profiler to see the allocation rate:
+ *
+ *   ./gradlew :app:benchmark -PjmhArgs="FrameEncoderBenchmark -prof gc"
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameEncoderBenchmark {
+
+    //
+    // Members
+    //
+
+    private final SBrickFrameEncoder sbrickFrameEncoder = new SBrickFrameEncoder();
+    private final BuWizzFrameEncoder buwizzFrameEncoder = new BuWizzFrameEncoder();
+    private final BuWizz2FrameEncoder buwizz2FrameEncoder = new BuWizz2FrameEncoder();
+
+    // Changes every call so the frames can not be folded into constants
+    private int value = 0;
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public byte[] sbrickFrame() {
+        int v = nextValue();
+        sbrickFrameEncoder.encode(v, -v, v, -v);
+        return sbrickFrameEncoder.getBuffer();
+    }
+
+    @Benchmark
+    public byte[] sbrickFrameAllocated() {
+        int v = nextValue();
+        return new byte[] {
+                (byte)((Math.abs(v) & 0xfe) | 0x02 | (v < 0 ? 1 : 0)),
+                (byte)((Math.abs(-v) & 0xfe) | 0x02 | (-v < 0 ? 1 : 0)),
+                (byte)((Math.abs(v) & 0xfe) | 0x02 | (v < 0 ? 1 : 0)),
+                (byte)((Math.abs(-v) & 0xfe) | 0x02 | (-v < 0 ? 1 : 0))
+        };
+    }
+
+    @Benchmark
+    public byte[] buwizzFrame() {
+        int v = nextValue();
+        buwizzFrameEncoder.encode(v, -v, v, -v);
+        return buwizzFrameEncoder.getBuffer();
+    }
+
+    @Benchmark
+    public byte[] buwizz2Frame() {
+        int v = nextValue();
+        buwizz2FrameEncoder.encode(v, -v, v, -v);
+        return buwizz2FrameEncoder.getBuffer();
+    }
+
+    //
+    // Private methods
+    //
+
+    private int nextValue() {
+        value = value < 255 ? value + 1 : -255;
+        return value;
+    }
+}
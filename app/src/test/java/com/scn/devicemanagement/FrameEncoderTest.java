@@ -0,0 +1,127 @@
+package com.scn.devicemanagement;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Pins the wire bytes of the Bluetooth hub frames.
+ */
+
+public class FrameEncoderTest {
+
+    //
+    // SBrick
+    //
+
+    @Test
+    public void sbrickFrame() {
+        SBrickFrameEncoder encoder = new SBrickFrameEncoder();
+
+        int length = encoder.encode(255, -255, 0, 100);
+
+        assertEquals(4, length);
+        assertArrayEquals(new byte[] { (byte)0xfe, (byte)0xff, 0x02, 0x66 }, encoder.getBuffer());
+    }
+
+    @Test
+    public void sbrickFrameSmallValues() {
+        SBrickFrameEncoder encoder = new SBrickFrameEncoder();
+
+        encoder.encode(1, -1, 2, -2);
+
+        assertArrayEquals(new byte[] { 0x02, 0x03, 0x02, 0x03 }, encoder.getBuffer());
+    }
+
+    @Test
+    public void sbrickQuantize() {
+        SBrickFrameEncoder encoder = new SBrickFrameEncoder();
+
+        assertEquals(0xfe, encoder.quantize(255));
+        assertEquals(0xff, encoder.quantize(-255));
+        assertEquals(encoder.quantize(100), encoder.quantize(101));
+    }
+
+    //
+    // BuWizz
+    //
+
+    @Test
+    public void buwizzFrame() {
+        BuWizzFrameEncoder encoder = new BuWizzFrameEncoder();
+
+        int length = encoder.encode(255, -255, 0, 100);
+
+        assertEquals(5, length);
+        assertArrayEquals(new byte[] { (byte)0xbf, 0x7f, 0x00, 0x19, 0x20 }, encoder.getBuffer());
+    }
+
+    @Test
+    public void buwizzFrameOutputLevel() {
+        BuWizzFrameEncoder encoder = new BuWizzFrameEncoder();
+
+        encoder.setOutputLevel(BuWizzDevice.BuWizzOutputLevel.LOW);
+        encoder.encode(0, 0, 0, 0);
+        assertArrayEquals(new byte[] { (byte)0x80, 0x00, 0x00, 0x00, 0x00 }, encoder.getBuffer());
+
+        encoder.setOutputLevel(BuWizzDevice.BuWizzOutputLevel.HIGH);
+        encoder.encode(0, 0, 0, 0);
+        assertArrayEquals(new byte[] { (byte)0x80, 0x00, 0x00, 0x00, 0x40 }, encoder.getBuffer());
+
+        encoder.setOutputLevel(BuWizzDevice.BuWizzOutputLevel.NORMAL);
+        encoder.encode(0, 0, 0, 0);
+        assertArrayEquals(new byte[] { (byte)0x80, 0x00, 0x00, 0x00, 0x20 }, encoder.getBuffer());
+    }
+
+    //
+    // BuWizz 2
+    //
+
+    @Test
+    public void buwizz2Frame() {
+        BuWizz2FrameEncoder encoder = new BuWizz2FrameEncoder();
+
+        int length = encoder.encode(255, -255, 0, 100);
+
+        assertEquals(6, length);
+        assertArrayEquals(new byte[] { 0x10, 0x7f, (byte)0x81, 0x00, 0x32, 0x00 }, encoder.getBuffer());
+    }
+
+    @Test
+    public void buwizz2OutputLevelFrame() {
+        BuWizz2FrameEncoder encoder = new BuWizz2FrameEncoder();
+
+        assertArrayEquals(new byte[] { 0x11, 0x01 }, encoder.encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel.LOW));
+        assertArrayEquals(new byte[] { 0x11, 0x02 }, encoder.encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel.NORMAL));
+        assertArrayEquals(new byte[] { 0x11, 0x03 }, encoder.encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel.HIGH));
+        assertArrayEquals(new byte[] { 0x11, 0x04 }, encoder.encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel.LUDICROUS));
+    }
+
+    //
+    // Buffer reuse
+    //
+
+    @Test
+    public void buffersAreReused() {
+        FrameEncoder encoders[] = new FrameEncoder[] { new SBrickFrameEncoder(), new BuWizzFrameEncoder(), new BuWizz2FrameEncoder() };
+
+        for (FrameEncoder encoder : encoders) {
+            encoder.encode(255, 255, 255, 255);
+            byte buffer[] = encoder.getBuffer();
+            byte firstFrame[] = Arrays.copyOf(buffer, buffer.length);
+
+            encoder.encode(-128, 0, 64, -64);
+            assertSame(buffer, encoder.getBuffer());
+
+            encoder.encode(255, 255, 255, 255);
+            assertArrayEquals(firstFrame, encoder.getBuffer());
+        }
+
+        BuWizz2FrameEncoder encoder = new BuWizz2FrameEncoder();
+        assertSame(encoder.encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel.LOW), encoder.encodeOutputLevel(BuWizz2Device.BuWizz2OutputLevel.HIGH));
+    }
+}
@@ -0,0 +1,58 @@
+package com.scn.devicemanagement;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks the PF IR pulse pattern of a frame up in the prebuilt table, compared to encoding it bit
+ * by bit on every output tick. The encoding allocates its pattern array, the manager used to reuse
+ * one, so the gc profiler tells the allocation apart from the encoding time.
+ *
+ *   ./gradlew :app:benchmark -PjmhArgs="InfraRedFrameBenchmark -prof gc"
+ */
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InfraRedFrameBenchmark {
+
+    //
+    // Members
+    //
+
+    private final int irFrames[][] = InfraRedDeviceManager.buildIrFrames();
+
+    // Walks every frame so the lookups are not folded into constants
+    private int frame = 0;
+
+    //
+    // Benchmarks
+    //
+
+    @Benchmark
+    public int[] prebuiltFrame() {
+        int index = nextFrame();
+        return irFrames[InfraRedDeviceManager.getIrFrameIndex(index >> 8, (index >> 4) & 0xf, index & 0xf)];
+    }
+
+    @Benchmark
+    public int[] encodedFrame() {
+        int index = nextFrame();
+        return InfraRedDeviceManager.buildIrFrame(index >> 8, (index >> 4) & 0xf, index & 0xf);
+    }
+
+    //
+    // Private methods
+    //
+
+    private int nextFrame() {
+        frame = (frame + 1) & 0x3ff;
+        return frame;
+    }
+}
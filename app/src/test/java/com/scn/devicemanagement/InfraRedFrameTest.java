@@ -0,0 +1,83 @@
+package com.scn.devicemanagement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the prebuilt PF IR pulse patterns against the bit-by-bit encoding of the frames.
+ */
+
+public class InfraRedFrameTest {
+
+    //
+    // Constants
+    //
+
+    // PF timing in microseconds: 6 carrier cycles mark, 39 / 21 / 10 cycles of gap
+    private static final int MARK = 158;
+    private static final int START_STOP_GAP = 1026;
+    private static final int ONE_GAP = 553;
+    private static final int ZERO_GAP = 263;
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void everyCachedPatternMatchesTheBitEncoder() {
+        int irFrames[][] = InfraRedDeviceManager.buildIrFrames();
+
+        assertEquals(1024, irFrames.length);
+
+        for (int address = 0; address < 4; address++) {
+            for (int nibble2 = 0; nibble2 < 16; nibble2++) {
+                for (int nibble3 = 0; nibble3 < 16; nibble3++) {
+                    String message = "address: " + address + ", nibbles: " + nibble2 + ", " + nibble3;
+                    int cachedFrame[] = irFrames[InfraRedDeviceManager.getIrFrameIndex(address, nibble2, nibble3)];
+
+                    assertArrayEquals(message, InfraRedDeviceManager.buildIrFrame(address, nibble2, nibble3), cachedFrame);
+                    assertArrayEquals(message, encodeFrame(address, nibble2, nibble3), cachedFrame);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void framePatternOfTheStopCommand() {
+        // Address 1, both outputs float: nibbles 0x4, 0x0, 0x0, LRC 0xb
+        int expected[] = new int[] {
+                MARK, START_STOP_GAP,
+                MARK, ZERO_GAP, MARK, ONE_GAP, MARK, ZERO_GAP, MARK, ZERO_GAP,
+                MARK, ZERO_GAP, MARK, ZERO_GAP, MARK, ZERO_GAP, MARK, ZERO_GAP,
+                MARK, ZERO_GAP, MARK, ZERO_GAP, MARK, ZERO_GAP, MARK, ZERO_GAP,
+                MARK, ONE_GAP, MARK, ZERO_GAP, MARK, ONE_GAP, MARK, ONE_GAP,
+                MARK, START_STOP_GAP
+        };
+
+        assertArrayEquals(expected, InfraRedDeviceManager.buildIrFrames()[InfraRedDeviceManager.getIrFrameIndex(0, 0, 0)]);
+    }
+
+    //
+    // Private methods
+    //
+
+    private static int[] encodeFrame(int address, int nibble2, int nibble3) {
+        int nibble1 = 0x4 | address;
+        int nibbleLrc = 0xf ^ nibble1 ^ nibble2 ^ nibble3;
+        int word = (nibble1 << 12) | (nibble2 << 8) | (nibble3 << 4) | nibbleLrc;
+
+        int pattern[] = new int[36];
+        pattern[0] = MARK;
+        pattern[1] = START_STOP_GAP;
+        for (int bit = 0; bit < 16; bit++) {
+            pattern[2 + bit * 2] = MARK;
+            pattern[3 + bit * 2] = ((word >> (15 - bit)) & 1) != 0 ? ONE_GAP : ZERO_GAP;
+        }
+        pattern[34] = MARK;
+        pattern[35] = START_STOP_GAP;
+
+        return pattern;
+    }
+}
@@ -0,0 +1,104 @@
+package com.scn.devicemanagement;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the PCM rendering of the PF IR timing.
+ */
+
+public class InfraRedPcmGeneratorTest {
+
+    //
+    // Constants
+    //
+
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CARRIER_FREQUENCY = 38000;
+
+    // PF timing in microseconds (IR_MARK, IR_ONE_GAP, IR_ZERO_GAP, IR_START_STOP_GAP)
+    private static final int MARK = 158;
+    private static final int ONE_GAP = 553;
+    private static final int ZERO_GAP = 263;
+    private static final int START_STOP_GAP = 1026;
+
+    // Boundaries are rounded to the nearest sample
+    private static final double SAMPLE_MICROS = 1000000.0 / SAMPLE_RATE;
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void markAndGapDurations() {
+        int pattern[] = new int[] { MARK, ONE_GAP, MARK, ZERO_GAP, MARK, START_STOP_GAP };
+        short samples[] = new InfraRedPcmGenerator(SAMPLE_RATE, CARRIER_FREQUENCY).render(pattern);
+
+        checkSegments(pattern, samples);
+    }
+
+    @Test
+    public void fullFrameDoesNotDrift() {
+        int pattern[] = InfraRedDeviceManager.buildIrFrame(3, 0x7, 0x9);
+        short samples[] = new InfraRedPcmGenerator(SAMPLE_RATE, CARRIER_FREQUENCY).render(pattern);
+
+        long totalMicros = 0;
+        for (int duration : pattern) totalMicros += duration;
+
+        assertEquals(Math.round(totalMicros * SAMPLE_RATE / 1000000.0) * InfraRedPcmGenerator.CHANNEL_COUNT, samples.length);
+        checkSegments(pattern, samples);
+    }
+
+    @Test
+    public void markCarriesTheCarrierFrequency() {
+        int markMicros = 10000;
+        short samples[] = new InfraRedPcmGenerator(SAMPLE_RATE, CARRIER_FREQUENCY).render(new int[] { markMicros, 0 });
+
+        // The LED lights on both half waves of the half frequency sine, once per half wave
+        int halfWaves = 0;
+        for (int n = 1; n < samples.length / 2; n++) {
+            if ((samples[n * 2] > 0) != (samples[(n - 1) * 2] > 0)) halfWaves++;
+        }
+
+        double frequency = halfWaves / (markMicros / 1000000.0);
+        assertEquals(CARRIER_FREQUENCY, frequency, CARRIER_FREQUENCY * 0.02);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLowSampleRateIsRejected() {
+        new InfraRedPcmGenerator(38000, CARRIER_FREQUENCY);
+    }
+
+    //
+    // Private methods
+    //
+
+    private static void checkSegments(int pattern[], short samples[]) {
+        long elapsedMicros = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            int startSample = (int)Math.round(elapsedMicros / SAMPLE_MICROS);
+            elapsedMicros += pattern[i];
+            int endSample = (int)Math.round(elapsedMicros / SAMPLE_MICROS);
+            String message = "segment " + i;
+
+            assertEquals(message, pattern[i], (endSample - startSample) * SAMPLE_MICROS, SAMPLE_MICROS);
+
+            for (int n = startSample; n < endSample; n++) {
+                short left = samples[n * 2];
+                short right = samples[n * 2 + 1];
+
+                if ((i & 1) == 0) {
+                    // The sine starts from zero at the beginning of the mark
+                    assertTrue(message + ", sample " + n, n == startSample || left != 0);
+                    assertEquals(message + ", sample " + n, -left, right);
+                }
+                else {
+                    assertEquals(message + ", sample " + n, 0, left);
+                    assertEquals(message + ", sample " + n, 0, right);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.scn.devicemanagement;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the PF retransmission timing of the infra red frames with a fake emitter and clock.
+ *
+ * Except for the idle test the output thread is not started, the test ticks the manager itself
+ * every millisecond, so a frame sent at the wrong time would show up.
+ */
+
+public class InfraRedSchedulingTest {
+
+    //
+    // Constants
+    //
+
+    // PF tm, the maximum length of a message
+    private static final int TM = 16;
+
+    //
+    // Members
+    //
+
+    private FakeClock clock;
+    private FakeEmitter emitter;
+    private OutputScheduler outputScheduler;
+    private InfraRedDeviceManager manager;
+    private Device devices[];
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        clock = new FakeClock();
+        emitter = new FakeEmitter(clock);
+        outputScheduler = new OutputScheduler();
+        manager = new InfraRedDeviceManager(null, outputScheduler, () -> emitter, clock);
+
+        devices = new Device[4];
+        for (int address = 0; address < 4; address++) {
+            devices[address] = manager.createDevice(Device.DeviceType.INFRARED, "PF Infra " + (address + 1), Integer.toString(address + 1), null);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        outputScheduler.unregister(manager);
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void noWakeUpsWhileIdle() throws InterruptedException {
+        manager.connectDevice(devices[0]);
+        Thread.sleep(100);
+
+        // Below the first speed step, the wire value does not change
+        devices[0].setOutput(0, 10);
+        Thread.sleep(100);
+
+        assertEquals(1, emitter.openCount);
+        assertEquals(0, manager.getWakeUpCount());
+        assertEquals(0, emitter.frames.size());
+
+        manager.disconnectDevice(devices[0]);
+        assertEquals(1, emitter.closeCount);
+    }
+
+    @Test
+    public void repeatSpacingOfEveryChannel() {
+        for (Device device : devices) {
+            device.setOutput(0, 255);
+        }
+        tickUntil(2000);
+
+        for (int address = 0; address < 4; address++) {
+            List<Long> times = getFrameTimes(address, -1);
+            int channel = address + 1;
+
+            assertTrue(times.size() > 5);
+            assertEquals(0, (long)times.get(0));
+            assertEquals(5 * TM, times.get(1) - times.get(0));
+            assertEquals(5 * TM, times.get(2) - times.get(1));
+
+            // Kept refreshed with the collision avoiding spacing while the output is on
+            for (int i = 3; i < times.size(); i++) {
+                assertEquals("channel " + channel + ", repeat " + i, (6 + 2 * channel) * TM, times.get(i) - times.get(i - 1));
+            }
+        }
+    }
+
+    @Test
+    public void stopFrameIsRepeatedFiveTimes() {
+        devices[2].setOutput(1, -255);
+        tickUntil(500);
+
+        devices[2].setOutput(1, 0);
+        long stopTime = clock.now;
+        tickUntil(stopTime + 3000);
+
+        List<Long> stopTimes = getFrameTimes(2, 0x00);
+        assertEquals(5, stopTimes.size());
+        assertEquals(stopTime, (long)stopTimes.get(0));
+        assertEquals(5 * TM, stopTimes.get(1) - stopTimes.get(0));
+        assertEquals(5 * TM, stopTimes.get(2) - stopTimes.get(1));
+        assertEquals((6 + 2 * 3) * TM, stopTimes.get(3) - stopTimes.get(2));
+        assertEquals((6 + 2 * 3) * TM, stopTimes.get(4) - stopTimes.get(3));
+
+        // Nothing is sent after the last stop frame and the tick parks
+        assertEquals((long)stopTimes.get(4), emitter.frames.get(emitter.frames.size() - 1).time);
+        assertFalse(manager.onOutputTick());
+    }
+
+    @Test
+    public void changeRestartsTheRepeats() {
+        devices[0].setOutput(0, 255);
+        tickUntil(300);
+
+        devices[0].setOutput(0, 128);
+        long changeTime = clock.now;
+        tickUntil(changeTime + 200);
+
+        List<Long> times = getFrameTimes(0, 0x40);
+        assertEquals(changeTime, (long)times.get(0));
+        assertEquals(5 * TM, times.get(1) - times.get(0));
+    }
+
+    //
+    // Private methods
+    //
+
+    private void tickUntil(long endTime) {
+        while (clock.now < endTime) {
+            manager.onOutputTick();
+            clock.now++;
+        }
+    }
+
+    /**
+     * @param outputNibbles the two output nibbles of the frames to collect, -1 for every frame.
+     */
+    private List<Long> getFrameTimes(int address, int outputNibbles) {
+        List<Long> times = new ArrayList<>();
+        for (Frame frame : emitter.frames) {
+            int word = decodeWord(frame.pattern);
+            if (((word >> 12) & 3) == address && (outputNibbles < 0 || ((word >> 4) & 0xff) == outputNibbles)) {
+                times.add(frame.time);
+            }
+        }
+
+        return times;
+    }
+
+    private static int decodeWord(int pattern[]) {
+        int word = 0;
+        for (int bit = 0; bit < 16; bit++) {
+            // Gaps longer than the zero gap are ones
+            word = (word << 1) | (pattern[3 + bit * 2] > 400 ? 1 : 0);
+        }
+
+        return word;
+    }
+
+    //
+    // Fakes
+    //
+
+    private static final class FakeClock implements InfraRedDeviceManager.Clock {
+        long now = 0;
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+    }
+
+    private static final class Frame {
+        final long time;
+        final int pattern[];
+
+        Frame(long time, int pattern[]) {
+            this.time = time;
+            this.pattern = pattern;
+        }
+    }
+
+    private static final class FakeEmitter implements InfraRedEmitter {
+        final FakeClock clock;
+        final List<Frame> frames = new ArrayList<>();
+        int openCount = 0;
+        int closeCount = 0;
+
+        FakeEmitter(FakeClock clock) {
+            this.clock = clock;
+        }
+
+        @Override
+        public boolean isSupported(int carrierFrequency) {
+            return true;
+        }
+
+        @Override
+        public void open() {
+            openCount++;
+        }
+
+        @Override
+        public void close() {
+            closeCount++;
+        }
+
+        @Override
+        public synchronized void transmit(int carrierFrequency, @NonNull int[] pattern) {
+            frames.add(new Frame(clock.now, pattern));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.scn.devicemanagement;
+
+import android.arch.lifecycle.MutableLiveData;
+import android.support.annotation.NonNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the throttling of the telemetry publishes with a fake clock and scheduler.
+ */
+
+public class TelemetryRecorderTest {
+
+    //
+    // Constants
+    //
+
+    private static final int PUBLISH_INTERVAL_MS = 500;
+
+    //
+    // Members
+    //
+
+    private FakeScheduler scheduler;
+    private RecordingLiveData telemetryLiveData;
+    private TelemetryRecorder telemetryRecorder;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        scheduler = new FakeScheduler();
+        telemetryLiveData = new RecordingLiveData();
+        telemetryRecorder = new TelemetryRecorder(telemetryLiveData, scheduler);
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void firstSampleIsPublishedRightAway() {
+        scheduler.now = 1000;
+        commitBatteryVoltage(7.5f);
+
+        assertEquals(1, telemetryLiveData.values.size());
+        assertEquals(7.5f, telemetryLiveData.values.get(0).batteryVoltage, 0);
+    }
+
+    @Test
+    public void sampleInsideTheIntervalIsPublishedAtItsEnd() {
+        scheduler.now = 1000;
+        commitBatteryVoltage(7.5f);
+
+        advance(100);
+        commitBatteryVoltage(7.4f);
+        advance(100);
+        commitBatteryVoltage(7.3f);
+        assertEquals(1, telemetryLiveData.values.size());
+
+        advance(PUBLISH_INTERVAL_MS);
+        assertEquals(2, telemetryLiveData.values.size());
+        assertEquals(1000 + PUBLISH_INTERVAL_MS, (long)telemetryLiveData.times.get(1));
+
+        // The latest values, not the ones of the sample starting the wait
+        assertEquals(7.3f, telemetryLiveData.values.get(1).batteryVoltage, 0);
+        assertEquals(7.3f, telemetryLiveData.values.get(1).lowestBatteryVoltage, 0);
+    }
+
+    @Test
+    public void nothingIsPublishedWithoutNewSamples() {
+        scheduler.now = 1000;
+        commitBatteryVoltage(7.5f);
+
+        advance(10 * PUBLISH_INTERVAL_MS);
+        assertEquals(1, telemetryLiveData.values.size());
+    }
+
+    @Test
+    public void steadySamplesArePublishedOncePerInterval() {
+        scheduler.now = 1000;
+        for (int i = 0; i < 100; i++) {
+            commitBatteryVoltage(7 + i * 0.01f);
+            advance(50);
+        }
+
+        // 5 s of samples and the trailing publish of the last one
+        assertEquals(11, telemetryLiveData.values.size());
+        for (int i = 1; i < telemetryLiveData.times.size(); i++) {
+            assertEquals(PUBLISH_INTERVAL_MS, telemetryLiveData.times.get(i) - telemetryLiveData.times.get(i - 1));
+        }
+        assertEquals(7 + 99 * 0.01f, telemetryLiveData.values.get(10).batteryVoltage, 0);
+    }
+
+    @Test
+    public void resetDropsTheScheduledPublish() {
+        scheduler.now = 1000;
+        commitBatteryVoltage(7.5f);
+        advance(100);
+        commitBatteryVoltage(7.4f);
+
+        telemetryRecorder.reset();
+        advance(PUBLISH_INTERVAL_MS);
+        assertEquals(1, telemetryLiveData.values.size());
+
+        // The first sample after the reset is not throttled
+        commitBatteryVoltage(7.3f);
+        assertEquals(2, telemetryLiveData.values.size());
+    }
+
+    //
+    // Private methods
+    //
+
+    private void commitBatteryVoltage(float batteryVoltage) {
+        telemetryRecorder.setBatteryVoltage(batteryVoltage);
+        telemetryRecorder.commit();
+    }
+
+    private void advance(long durationMs) {
+        long endTime = scheduler.now + durationMs;
+        while (scheduler.now < endTime) {
+            scheduler.now++;
+            scheduler.runDue();
+        }
+    }
+
+    //
+    // Fakes
+    //
+
+    private final class RecordingLiveData extends MutableLiveData<DeviceTelemetry> {
+        final List<DeviceTelemetry> values = new ArrayList<>();
+        final List<Long> times = new ArrayList<>();
+
+        @Override
+        public void postValue(DeviceTelemetry value) {
+            values.add(value);
+            times.add(scheduler.now);
+        }
+    }
+
+    private static final class FakeScheduler implements TelemetryRecorder.Scheduler {
+        long now = 0;
+        final List<Runnable> runnables = new ArrayList<>();
+        final List<Long> runTimes = new ArrayList<>();
+
+        @Override
+        public long uptimeMillis() {
+            return now;
+        }
+
+        @Override
+        public void postDelayed(@NonNull Runnable runnable, long delayMs) {
+            runnables.add(runnable);
+            runTimes.add(now + delayMs);
+        }
+
+        void runDue() {
+            for (int i = 0; i < runnables.size(); i++) {
+                if (runTimes.get(i) <= now) {
+                    Runnable runnable = runnables.remove(i);
+                    runTimes.remove(i);
+                    runnable.run();
+                    i = -1;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.scn.ui.controller;
+
+import android.view.MotionEvent;
+
+import com.scn.creationmanagement.ControllerEvent;
+import com.scn.creationmanagement.ControllerProfileBuilder;
+import com.scn.devicemanagement.Device;
+import com.scn.devicemanagement.FakeDevice;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the outputs are set on the dispatch thread, independently of the thread pushing the
+ * controller input. The test thread plays the main thread.
+ */
+
+public class ControllerInputDispatcherTest {
+
+    //
+    // Constants
+    //
+
+    private static final int EVENT_COUNT = 10;
+    private static final long EVENT_INTERVAL_MS = 10;
+
+    // Long compared to the dispatch latency, like a layout pass or a GC pause
+    private static final long STALL_MS = 250;
+    private static final long MAX_LATENCY_MS = 50;
+
+    private static final long TIMEOUT_MS = 2000;
+
+    //
+    // Members
+    //
+
+    private FakeDevice device;
+    private ControllerInputDispatcher dispatcher;
+
+    //
+    // Setup
+    //
+
+    @Before
+    public void setUp() {
+        device = new FakeDevice("Fake", "1", 2);
+
+        Map<String, Device> deviceMap = new HashMap<>();
+        deviceMap.put(device.getId(), device);
+
+        dispatcher = new ControllerInputDispatcher();
+        dispatcher.setDispatchTable(ControllerDispatchTable.compile(
+                new ControllerProfileBuilder("Test")
+                        .addAction(ControllerEvent.ControllerEventType.MOTION, MotionEvent.AXIS_X, device.getId(), 0, 100)
+                        .addAction(ControllerEvent.ControllerEventType.MOTION, MotionEvent.AXIS_Y, device.getId(), 1, 100)
+                        .build(),
+                deviceMap));
+        dispatcher.start();
+    }
+
+    @After
+    public void tearDown() {
+        dispatcher.stop();
+    }
+
+    //
+    // Tests
+    //
+
+    @Test
+    public void motionIsAppliedOnTheDispatchThread() throws InterruptedException {
+        pushMotion(100, -200);
+
+        List<FakeDevice.OutputChange> outputChanges = device.awaitOutputChanges(2, TIMEOUT_MS);
+        assertEquals(2, outputChanges.size());
+
+        for (FakeDevice.OutputChange outputChange : outputChanges) {
+            assertNotSame(Thread.currentThread(), outputChange.thread);
+            assertEquals("ControllerInputDispatcher", outputChange.thread.getName());
+        }
+        assertEquals(100, device.getOutput(0));
+        assertEquals(-200, device.getOutput(1));
+    }
+
+    @Test
+    public void stalledMainThreadDoesNotDelayTheOutputs() throws InterruptedException {
+        long pushTimes[] = new long[EVENT_COUNT];
+        long stallEndTimes[] = new long[EVENT_COUNT];
+
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            pushTimes[i] = System.nanoTime();
+            pushMotion(i + 1, 0);
+
+            // Every other event is followed by a stall of the main thread
+            stallEndTimes[i] = (i & 1) != 0 ? stall(STALL_MS) : stall(EVENT_INTERVAL_MS);
+        }
+
+        List<FakeDevice.OutputChange> outputChanges = device.awaitOutputChanges(EVENT_COUNT * 2, TIMEOUT_MS);
+        assertEquals(EVENT_COUNT * 2, outputChanges.size());
+
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            FakeDevice.OutputChange outputChange = outputChanges.get(i * 2);
+            assertEquals(0, outputChange.channel);
+            assertEquals(i + 1, outputChange.value);
+
+            // Applied right away, not after the stall
+            long latencyMs = (outputChange.timeNanos - pushTimes[i]) / 1000000;
+            assertTrue("event " + i + ", latency: " + latencyMs + " ms", latencyMs < MAX_LATENCY_MS);
+            assertTrue("event " + i, outputChange.timeNanos < stallEndTimes[i]);
+        }
+    }
+
+    //
+    // Private methods
+    //
+
+    private void pushMotion(int x, int y) {
+        dispatcher.beginMotion();
+        dispatcher.pushMotion(MotionEvent.AXIS_X, x);
+        dispatcher.pushMotion(MotionEvent.AXIS_Y, y);
+        dispatcher.commitMotion();
+    }
+
+    /**
+     * Keeps the calling thread busy.
+     * @return the end of the stall in nanoseconds.
+     */
+    private static long stall(long durationMs) {
+        long endTime = System.nanoTime() + durationMs * 1000000;
+        long now;
+        do {
+            now = System.nanoTime();
+        } while (now < endTime);
+
+        return now;
+    }
+}